@@ -0,0 +1,148 @@
+package com.amazonaws.TableLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.profile.ProfileCredentialsProvider;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClientBuilder;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+
+/**
+ * Issues reads through the asynchronous DynamoDB client, chaining pagination on completion callbacks
+ * so callers never block on a request
+ * @author rickhou
+ *
+ */
+public class AsyncEngine {
+	private AmazonDynamoDBAsync client;
+	// delays the retry of unprocessed keys without holding a thread
+	private ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "AsyncEngineTimer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Constructor
+	 * @param config - the client configuration shared with the synchronous client
+	 * @param maxInFlight - the maximum number of requests in flight at once
+	 */
+	public AsyncEngine(ClientConfiguration config, int maxInFlight) {
+		client = AmazonDynamoDBAsyncClientBuilder.standard()
+				.withClientConfiguration(new ClientConfiguration(config).withMaxConnections(maxInFlight))
+				.withExecutorFactory(() -> Executors.newFixedThreadPool(maxInFlight)).withRequestHandlers(Metrics.HANDLER)
+				.withCredentials(new ProfileCredentialsProvider("default")).build();
+	}
+
+	/**
+	 * Constructor for a client that is already built, such as the local stand-in
+	 * @param client - the asynchronous client
+	 */
+	public AsyncEngine(AmazonDynamoDBAsync client) {
+		this.client = client;
+	}
+
+	/**
+	 * read all items from a logical partition
+	 * @param table - the table name
+	 * @param pKey - the partition key value
+	 * @param cost - receives the requests and capacity of every page, or null
+	 * @return a future that completes with every page of the result
+	 */
+	public CompletableFuture<List<Item>> query(String table, String pKey, ReadCost cost) {
+		QueryRequest request = new QueryRequest().withTableName(table).withKeyConditionExpression("PK = :pKey")
+				.addExpressionAttributeValuesEntry(":pKey", new AttributeValue(pKey))
+				.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
+		return query(request, new ArrayList<Item>(), cost);
+	}
+
+	private CompletableFuture<List<Item>> query(QueryRequest request, List<Item> items, ReadCost cost) {
+		Handler<QueryRequest, QueryResult> handler = new Handler<QueryRequest, QueryResult>();
+		client.queryAsync(request, handler);
+
+		return handler.thenCompose(result -> {
+			if (cost != null)
+				cost.record(result.getConsumedCapacity());
+
+			items.addAll(ItemUtils.toItemList(result.getItems()));
+			if (isLastPage(result.getLastEvaluatedKey()))
+				return CompletableFuture.completedFuture(items);
+
+			return query(request.clone().withExclusiveStartKey(result.getLastEvaluatedKey()), items, cost);
+		});
+	}
+
+	/**
+	 * read items by primary key from one or more tables, retrying unprocessed keys after a backoff
+	 * @param keys - the keys to read, keyed by table
+	 * @param cost - receives the requests and capacity of every call, or null
+	 * @return a future that completes with every item read
+	 */
+	public CompletableFuture<List<Item>> batchGet(Map<String, KeysAndAttributes> keys, ReadCost cost) {
+		return batchGet(keys, new ArrayList<Item>(), cost, RunBatchGet.BACKOFF);
+	}
+
+	private CompletableFuture<List<Item>> batchGet(Map<String, KeysAndAttributes> keys, List<Item> items,
+			ReadCost cost, long backoff) {
+		Handler<BatchGetItemRequest, BatchGetItemResult> handler =
+				new Handler<BatchGetItemRequest, BatchGetItemResult>();
+		client.batchGetItemAsync(new BatchGetItemRequest().withRequestItems(keys)
+				.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL), handler);
+
+		return handler.thenCompose(result -> {
+			if (cost != null)
+				cost.record(result.getConsumedCapacity());
+
+			for (List<Map<String, AttributeValue>> response : result.getResponses().values())
+				items.addAll(ItemUtils.toItemList(response));
+			if (result.getUnprocessedKeys() == null || result.getUnprocessedKeys().isEmpty())
+				return CompletableFuture.completedFuture(items);
+
+			CompletableFuture<Void> delay = new CompletableFuture<Void>();
+			timer.schedule(() -> delay.complete(null), backoff, TimeUnit.NANOSECONDS);
+			return delay.thenCompose(ignored -> batchGet(result.getUnprocessedKeys(), items, cost,
+					Math.min(2 * backoff, RunBatchGet.MAX_BACKOFF)));
+		});
+	}
+
+	private static boolean isLastPage(Map<String, AttributeValue> lastKey) {
+		return lastKey == null || lastKey.isEmpty();
+	}
+
+	public void shutdown() {
+		client.shutdown();
+		timer.shutdown();
+	}
+
+	// completes the future from the client callback
+	private static class Handler<REQUEST extends AmazonWebServiceRequest, RESULT> extends CompletableFuture<RESULT>
+			implements AsyncHandler<REQUEST, RESULT> {
+		@Override
+		public void onError(Exception exception) {
+			completeExceptionally(exception);
+		}
+
+		@Override
+		public void onSuccess(REQUEST request, RESULT result) {
+			complete(result);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package com.amazonaws.TableLoader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Builds entities directly as the attribute maps of the low-level API, sharing one instance of every fixed value.
+ * Nothing downstream modifies a request, so the shared values are never copied.
+ * @author rickhou
+ *
+ */
+public class AttributeFactory implements EntityFactory<Map<String, AttributeValue>> {
+	private static final AttributeValue SK_A = new AttributeValue("A");
+	private static final AttributeValue CUSTOMER = new AttributeValue("customer");
+	private static final AttributeValue ORDER = new AttributeValue("order");
+	private static final AttributeValue INVOICE = new AttributeValue("invoice");
+	private static final AttributeValue ORDER_ITEM = new AttributeValue("orderItem");
+	private static final AttributeValue SHIPMENT = new AttributeValue("shipment");
+	private static final AttributeValue SHIP_ITEM = new AttributeValue("shipItem");
+	private static final AttributeValue WAREHOUSE = new AttributeValue("warehouse");
+	private static final AttributeValue WAREHOUSE_ITEM = new AttributeValue("warehouseItem");
+	private static final AttributeValue DESCRIPTION = map("S", new AttributeValue("An amazing product."));
+	private static final AttributeValue COUNTRY = map("S", new AttributeValue("Sweden"));
+	private static final AttributeValue COUNTY = map("S", new AttributeValue("Vastra Gotaland"));
+	private static final AttributeValue NUMBER = map("S", new AttributeValue("20"));
+
+	// the -s payload is the same string on every data item
+	private volatile AttributeValue payload = new AttributeValue("");
+
+	public Map<String, AttributeValue> donor(String pk) {
+		Map<String, AttributeValue> map = new HashMap<String, AttributeValue>(4);
+		map.put("PK", new AttributeValue(pk));
+		map.put("SK", SK_A);
+
+		return map;
+	}
+
+	public Map<String, AttributeValue> data(String pk, String gsipk, String data) {
+		AttributeValue value = payload;
+		if (value.getS() != data)
+			payload = value = new AttributeValue(data);
+
+		Map<String, AttributeValue> map = new HashMap<String, AttributeValue>(8);
+		map.put("PK", new AttributeValue(pk));
+		map.put("SK", SK_A);
+		map.put("GSI1PK", new AttributeValue(gsipk));
+		map.put("GSI1SK", new AttributeValue(pk));
+		map.put("data", value);
+
+		return map;
+	}
+
+	public Map<String, AttributeValue> customer(String pk, String email) {
+		AttributeValue key = new AttributeValue(pk);
+
+		Map<String, AttributeValue> map = new HashMap<String, AttributeValue>(8);
+		map.put("PK", key);
+		map.put("SK", key);
+		map.put("type", CUSTOMER);
+		map.put("email", new AttributeValue(email));
+
+		return map;
+	}
+
+	public Map<String, AttributeValue> order(String pk, String customerId, String date, int amount) {
+		Map<String, AttributeValue> map = new HashMap<String, AttributeValue>(8);
+		map.put("PK", new AttributeValue(pk));
+		map.put("SK", new AttributeValue(customerId));
+		map.put("type", ORDER);
+		map.put("date", new AttributeValue(date));
+		map.put("amount", number(amount));
+
+		return map;
+	}
+
+	public Map<String, AttributeValue> invoice(String orderId, String sk, String customerId, String date, int amount) {
+		AttributeValue key = new AttributeValue(sk), when = new AttributeValue(date);
+
+		Map<String, AttributeValue> map = new HashMap<String, AttributeValue>(16);
+		map.put("PK", new AttributeValue(orderId));
+		map.put("SK", key);
+		map.put("type", INVOICE);
+		map.put("GSI1PK", key);
+		map.put("GSI1SK", key);
+		map.put("GSI2PK", new AttributeValue(customerId));
+		map.put("GSI2SK", when);
+		map.put("amount", number(amount));
+		map.put("date", when);
+
+		return map;
+	}
+
+	public Map<String, AttributeValue> orderItem(String orderId, String sk, String productId, String customerId,
+			String date, int qty, int price) {
+		AttributeValue when = new AttributeValue(date);
+
+		Map<String, AttributeValue> map = new HashMap<String, AttributeValue>(16);
+		map.put("PK", new AttributeValue(orderId));
+		map.put("SK", new AttributeValue(sk));
+		map.put("GSI1PK", new AttributeValue(productId));
+		map.put("type", ORDER_ITEM);
+		map.put("GSI1SK", when);
+		map.put("GSI2PK", new AttributeValue(customerId));
+		map.put("GSI2SK", when);
+		map.put("qty", number(qty));
+		map.put("price", number(price));
+
+		return map;
+	}
+
+	public Map<String, AttributeValue> shipment(String orderId, String sk, String warehouseId, String date,
+			String method) {
+		AttributeValue key = new AttributeValue(sk);
+
+		Map<String, AttributeValue> map = new HashMap<String, AttributeValue>(16);
+		map.put("PK", new AttributeValue(orderId));
+		map.put("SK", key);
+		map.put("type", SHIPMENT);
+		map.put("GSI1PK", key);
+		map.put("GSI1SK", key);
+		map.put("GSI2PK", new AttributeValue(warehouseId));
+		map.put("GSI2SK", new AttributeValue(date));
+		map.put("method", new AttributeValue(method));
+
+		return map;
+	}
+
+	public Map<String, AttributeValue> shipItem(String orderId, String sk, String shipmentId, String productId,
+			int qty) {
+		Map<String, AttributeValue> map = new HashMap<String, AttributeValue>(8);
+		map.put("PK", new AttributeValue(orderId));
+		map.put("SK", new AttributeValue(sk));
+		map.put("type", SHIP_ITEM);
+		map.put("GSI1PK", new AttributeValue(shipmentId));
+		map.put("GSI1SK", new AttributeValue(productId));
+		map.put("qty", number(qty));
+
+		return map;
+	}
+
+	public Map<String, AttributeValue> warehouse(String pk, String city, String street, String zipCode) {
+		Map<String, AttributeValue> address = new HashMap<String, AttributeValue>(8);
+		address.put("Country", COUNTRY);
+		address.put("County", COUNTY);
+		address.put("City", map("S", new AttributeValue(city)));
+		address.put("Street", map("S", new AttributeValue(street)));
+		address.put("Number", NUMBER);
+		address.put("ZipCode", map("S", new AttributeValue(zipCode)));
+
+		AttributeValue key = new AttributeValue(pk);
+
+		Map<String, AttributeValue> map = new HashMap<String, AttributeValue>(8);
+		map.put("PK", key);
+		map.put("SK", key);
+		map.put("type", WAREHOUSE);
+		map.put("address", new AttributeValue().withM(address));
+
+		return map;
+	}
+
+	public Map<String, AttributeValue> product(String pk, String warehouseId, int qty, int price) {
+		// nested the way the Document API stores the detail map, so both paths write identical items
+		Map<String, AttributeValue> detail = new HashMap<String, AttributeValue>(4);
+		detail.put("Name", map("S", new AttributeValue("Product" + pk.substring(2))));
+		detail.put("Description", DESCRIPTION);
+
+		AttributeValue key = new AttributeValue(pk);
+
+		Map<String, AttributeValue> map = new HashMap<String, AttributeValue>(16);
+		map.put("PK", key);
+		map.put("SK", new AttributeValue(warehouseId));
+		map.put("type", WAREHOUSE_ITEM);
+		map.put("GSI2PK", key);
+		map.put("qty", number(qty));
+		map.put("detail", new AttributeValue().withM(detail));
+		map.put("price", number(price));
+
+		return map;
+	}
+
+	public String type(Map<String, AttributeValue> entity) {
+		AttributeValue type = entity.get("type");
+		return (type != null ? type.getS() : null);
+	}
+
+	public BatchLoad batch(String table, List<Map<String, AttributeValue>> entities) {
+		List<WriteRequest> requests = new ArrayList<WriteRequest>(entities.size());
+		for (Map<String, AttributeValue> entity : entities)
+			requests.add(new WriteRequest(new PutRequest(entity)));
+
+		return new BatchLoad(table, requests);
+	}
+
+	public Map<String, AttributeValue> attributes(Map<String, AttributeValue> entity) {
+		return entity;
+	}
+
+	public Map<String, AttributeValue> entity(Map<String, AttributeValue> attributes) {
+		return attributes;
+	}
+
+	private static AttributeValue number(int value) {
+		return new AttributeValue().withN(Integer.toString(value));
+	}
+
+	private static AttributeValue map(String name, AttributeValue value) {
+		return new AttributeValue().withM(Collections.singletonMap(name, value));
+	}
+}
@@ -1,7 +1,21 @@
 package com.amazonaws.TableLoader;
 
-import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.BatchWriteItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 
 /**
  * Executes an asynchromous batch write to a DynamoDB table
@@ -9,7 +23,13 @@ import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
  *
  */
 public class BatchLoad implements Runnable {
+	private static final char KEY_SEPARATOR = '\u0000';
+
 	private TableWriteItems items;
+	private Map<String, List<WriteRequest>> unprocessed;
+	private long backoff;
+	// the checkpoint of each item in the order they are sent, or null when the load is not journaled
+	private List<Journal.Checkpoint> checkpoints;
 
 	/**
 	 * Constructor
@@ -19,30 +39,125 @@ public class BatchLoad implements Runnable {
 		this.items = items;
 	}
 
+	/**
+	 * Constructor for requests already built for the low-level API
+	 * @param table - the table to write to
+	 * @param requests - the write requests
+	 */
+	public BatchLoad(String table, List<WriteRequest> requests) {
+		this(Collections.singletonMap(table, requests), 0L);
+	}
+
+	/**
+	 * Constructor for a retry of unprocessed items
+	 * @param unprocessed - the unprocessed items to be written, keyed by table
+	 * @param backoff - the backoff in nanoseconds that preceded this attempt
+	 */
+	public BatchLoad(Map<String, List<WriteRequest>> unprocessed, long backoff) {
+		this.unprocessed = unprocessed;
+		this.backoff = backoff;
+	}
+
+	/**
+	 * Constructor for a retry of unprocessed items from journaled chunks
+	 * @param unprocessed - the unprocessed items to be written, keyed by table
+	 * @param backoff - the backoff in nanoseconds that preceded this attempt
+	 * @param checkpoints - the checkpoint of each item, in order
+	 */
+	public BatchLoad(Map<String, List<WriteRequest>> unprocessed, long backoff,
+			List<Journal.Checkpoint> checkpoints) {
+		this(unprocessed, backoff);
+		this.checkpoints = checkpoints;
+	}
+
 	/**
 	 * the runnable process to execute the batch write
 	 */
 	@Override
 	public void run() {
-		synchronized (Main.sync) {
-			Main.numThreads.incrementAndGet();
+		// wait for write capacity, then execute the write
+		String table = (items != null ? items.getTableName() : unprocessed.keySet().iterator().next());
+		WriteThrottle throttle = WriteThrottle.forTable(table);
+		double units = (items != null ? WriteThrottle.units(items) : WriteThrottle.units(unprocessed.get(table)));
+		throttle.acquire(units);
+
+		// requests that are already attribute maps go straight to the low-level client
+		long start = System.nanoTime();
+		BatchWriteItemResult result;
+		if (items != null)
+			result = Main.db.batchWriteItem(new BatchWriteItemSpec().withTableWriteItems(items)
+					.withReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES)).getBatchWriteItemResult();
+		else
+			result = Main.client.batchWriteItem(new BatchWriteItemRequest().withRequestItems(unprocessed)
+					.withReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES));
+		LatencyHistogram.named(String.format("BatchWriteItem [%s]", table)).record(System.nanoTime() - start);
+		throttle.reconcile(units, result, table);
+
+		// acknowledge the items now written to a GSI lag probe and the journal
+		List<Journal.Checkpoint> retries = null;
+		if (LagProbe.isActive() || checkpoints != null)
+			retries = acknowledge(table, result.getUnprocessedItems().get(table));
+
+		// hand anything unprocessed to the retry scheduler rather than sleeping on this thread
+		if (result.getUnprocessedItems().size() > 0)
+			RetryScheduler.schedule(result.getUnprocessedItems(), backoff, retries);
+	}
+
+	/**
+	 * journal the items of a chunk of a deterministic dataset as they are acknowledged
+	 * @param checkpoint - the checkpoint of the chunk every item in this batch belongs to
+	 */
+	public void setCheckpoint(Journal.Checkpoint checkpoint) {
+		int size = (items != null ? items.getItemsToPut().size() : unprocessed.values().iterator().next().size());
+		this.checkpoints = Collections.nCopies(size, checkpoint);
+	}
+
+	// acknowledge the items put by this batch that were not returned unprocessed, returning the checkpoints of the
+	// unprocessed ones in their order
+	private List<Journal.Checkpoint> acknowledge(String table, List<WriteRequest> failed) {
+		Set<String> skipped = new HashSet<String>();
+		if (failed != null)
+			for (WriteRequest request : failed)
+				if (request.getPutRequest() != null)
+					skipped.add(key(request.getPutRequest().getItem()));
+
+		List<String> keys = new ArrayList<String>();
+		if (items != null) {
+			if (items.getItemsToPut() != null)
+				for (Item item : items.getItemsToPut())
+					keys.add(item.getString("PK") + KEY_SEPARATOR + item.getString("SK"));
+		} else {
+			for (WriteRequest request : unprocessed.get(table))
+				if (request.getPutRequest() != null)
+					keys.add(key(request.getPutRequest().getItem()));
 		}
 
-		// execute the write and iterate if there are unprocessed items
-		BatchWriteItemOutcome outcome = Main.db.batchWriteItem(items);
-		while (outcome.getUnprocessedItems().size() > 0) {
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				System.err.println("ERROR: " + e.getMessage());
-				System.exit(1);
+		List<String> pKeys = new ArrayList<String>(keys.size());
+		Map<String, Journal.Checkpoint> pending = new HashMap<String, Journal.Checkpoint>();
+		for (int i = 0; i < keys.size(); i++) {
+			String key = keys.get(i);
+			Journal.Checkpoint checkpoint = (checkpoints != null ? checkpoints.get(i) : null);
+			if (skipped.contains(key)) {
+				pending.put(key, checkpoint);
+			} else {
+				pKeys.add(key.substring(0, key.indexOf(KEY_SEPARATOR)));
+				if (checkpoint != null)
+					checkpoint.written(1);
 			}
-			
-			outcome = Main.db.batchWriteItemUnprocessed(outcome.getUnprocessedItems());
 		}
+		LagProbe.written(pKeys);
 
-		synchronized (Main.sync) {
-			Main.numThreads.decrementAndGet();
-		}
+		if (failed == null || checkpoints == null)
+			return null;
+
+		List<Journal.Checkpoint> retries = new ArrayList<Journal.Checkpoint>(failed.size());
+		for (WriteRequest request : failed)
+			retries.add(request.getPutRequest() != null ? pending.get(key(request.getPutRequest().getItem())) : null);
+
+		return retries;
+	}
+
+	private static String key(Map<String, AttributeValue> item) {
+		return item.get("PK").getS() + KEY_SEPARATOR + item.get("SK").getS();
 	}
 }
@@ -0,0 +1,59 @@
+package com.amazonaws.TableLoader;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the tasks queued or running on an executor, so producers that loop faster than the workers slow down to their
+ * pace instead of filling the heap with queued tasks. A producer outside the executor blocks until a task finishes; a
+ * task of the executor submitting more work runs it itself instead, since blocking the workers a queued task waits
+ * for could never end.
+ * @author rickhou
+ *
+ */
+public class BoundedExecutor implements Executor {
+	private static ThreadLocal<BoundedExecutor> worker = new ThreadLocal<BoundedExecutor>();
+
+	private Executor delegate;
+	private Semaphore window;
+
+	/**
+	 * Constructor
+	 * @param delegate - the executor the tasks run on
+	 * @param maxTasks - the maximum number of tasks queued or running at once
+	 */
+	public BoundedExecutor(Executor delegate, int maxTasks) {
+		this.delegate = delegate;
+		this.window = new Semaphore(maxTasks);
+	}
+
+	/**
+	 * queue the task once the window has room, or run it on this thread if it is one of the executor's own tasks
+	 */
+	@Override
+	public void execute(Runnable task) {
+		if (worker.get() == this) {
+			if (!window.tryAcquire()) {
+				task.run();
+				return;
+			}
+		} else {
+			window.acquireUninterruptibly();
+		}
+
+		try {
+			delegate.execute(() -> {
+				worker.set(this);
+				try {
+					task.run();
+				} finally {
+					worker.remove();
+					window.release();
+				}
+			});
+		} catch (RuntimeException ex) {
+			window.release();
+			throw ex;
+		}
+	}
+}
@@ -0,0 +1,411 @@
+package com.amazonaws.TableLoader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Binary snapshot of a generated dataset, so a rerun with the same parameters and seed replays identical items without
+ * generating them again. The file holds a header followed by one record per chunk in the order the generator finished
+ * them: the chunk number, its item count, its length and the encoded items. Strings are written once per chunk and
+ * referred to by number after that, which folds the attribute names and the repeated values of a chunk away.
+ * @author rickhou
+ *
+ */
+public class DatasetSnapshot {
+	private static final int MAGIC = 0x544c5331, HEADER = 24, RECORD = 12;
+	private static final byte S = 0, N = 1, B = 2, BOOL = 3, NULL = 4, M = 5, L = 6, SS = 7, NS = 8, BS = 9;
+
+	private Path path;
+	private long fingerprint, seed;
+
+	/**
+	 * Constructor
+	 * @param dir - the directory holding the snapshots
+	 * @param fingerprint - identifies the parameters of the dataset, other than the seed
+	 * @param seed - the seed of the dataset
+	 */
+	public DatasetSnapshot(String dir, long fingerprint, long seed) {
+		this.path = Paths.get(dir, String.format("shop-%016x-%d.snap", fingerprint, seed));
+		this.fingerprint = fingerprint;
+		this.seed = seed;
+	}
+
+	/**
+	 * @param dir - the directory holding the snapshots
+	 * @param fingerprint - identifies the parameters of the dataset, other than the seed
+	 * @return the most recent snapshot of a dataset with the same parameters, whatever its seed, or null
+	 */
+	public static DatasetSnapshot latest(String dir, long fingerprint) {
+		String prefix = String.format("shop-%016x-", fingerprint);
+		File[] files = new File(dir).listFiles((parent, name) -> name.startsWith(prefix) && name.endsWith(".snap"));
+		if (files == null)
+			return null;
+
+		File latest = null;
+		for (File file : files)
+			if (latest == null || file.lastModified() > latest.lastModified())
+				latest = file;
+
+		if (latest == null)
+			return null;
+
+		String name = latest.getName();
+		return new DatasetSnapshot(dir, fingerprint,
+				Long.parseLong(name.substring(prefix.length(), name.length() - ".snap".length())));
+	}
+
+	public boolean exists() {
+		return Files.exists(path);
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public String getPath() {
+		return path.toString();
+	}
+
+	/**
+	 * start recording the chunks of a dataset as they are generated, to a temporary file that replaces the snapshot
+	 * only once every chunk is in it
+	 * @param factory - converts the entities to attribute maps
+	 * @param sink - receives each chunk after it is recorded
+	 * @param chunks - the number of chunks in the dataset
+	 * @return the recorder to generate into
+	 * @throws IOException - the file could not be created
+	 */
+	public <T> Recorder<T> record(EntityFactory<T> factory, ShopGenerator.Sink<T> sink, int chunks)
+			throws IOException {
+		Files.createDirectories(path.toAbsolutePath().getParent());
+		return new Recorder<T>(factory, sink, chunks);
+	}
+
+	/**
+	 * stream every chunk of the snapshot to the sink on the given number of tasks, which pull chunks until none are
+	 * left. Each record is read into its own buffer, so the file can be larger than one mapping allows.
+	 * @param factory - converts the attribute maps to entities
+	 * @param group - the group the tasks run in, awaited by the caller
+	 * @param threads - the number of tasks
+	 * @param sink - receives each chunk, concurrently from several tasks
+	 * @throws IOException - the snapshot could not be read or is not complete
+	 */
+	public <T> void replay(EntityFactory<T> factory, TaskGroup group, int threads, ShopGenerator.Sink<T> sink)
+			throws IOException {
+		int chunks;
+		List<long[]> records = new ArrayList<long[]>();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			if (size < HEADER || !read(channel, header, 0) || header.getInt() != MAGIC
+					|| header.getLong() != fingerprint || header.getLong() != seed)
+				throw new IOException(String.format("Snapshot [%s] was written for a different dataset.", path));
+
+			// index the offset and length of the chunk records so they can be decoded in parallel
+			chunks = header.getInt();
+			ByteBuffer prefix = ByteBuffer.allocate(RECORD);
+			for (long position = HEADER; position + RECORD <= size;) {
+				prefix.clear();
+				read(channel, prefix, position);
+				long length = RECORD + (prefix.getInt(8) & 0xffffffffL);
+				if (position + length > size)
+					break;
+
+				records.add(new long[] { position, length });
+				position += length;
+			}
+		}
+
+		if (records.size() != chunks)
+			throw new IOException(String.format("Snapshot [%s] holds %d of its %d chunks.", path, records.size(),
+					chunks));
+
+		AtomicInteger next = new AtomicInteger();
+		for (int t = 0; t < Math.min(threads, chunks); t++) {
+			group.submit(() -> {
+				try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+					int r;
+					while ((r = next.getAndIncrement()) < records.size()) {
+						ByteBuffer record = ByteBuffer.allocate((int) records.get(r)[1]);
+						read(channel, record, records.get(r)[0]);
+						int chunk = record.getInt(), count = record.getInt();
+						record.getInt();
+						if (sink.skip(chunk))
+							continue;
+
+						List<String> strings = new ArrayList<String>();
+						List<T> items = new ArrayList<T>(count);
+						for (int i = 0; i < count; i++)
+							items.add(factory.entity(readMap(record, strings)));
+
+						sink.accept(chunk, items);
+					}
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			});
+		}
+	}
+
+	// fill the buffer from the position and flip it for reading, returning false if the file ends first
+	private static boolean read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0)
+				return false;
+			position += read;
+		}
+		buffer.flip();
+		return true;
+	}
+
+	/**
+	 * Writes each generated chunk to the snapshot, then hands it on
+	 */
+	public class Recorder<T> implements ShopGenerator.Sink<T> {
+		private EntityFactory<T> factory;
+		private ShopGenerator.Sink<T> sink;
+		private FileChannel channel;
+		private Path temp;
+		private int chunks, written;
+
+		private Recorder(EntityFactory<T> factory, ShopGenerator.Sink<T> sink, int chunks) throws IOException {
+			this.factory = factory;
+			this.sink = sink;
+			this.chunks = chunks;
+			this.temp = Paths.get(path + ".tmp");
+			this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putLong(fingerprint).putLong(seed)
+					.putInt(chunks);
+			header.flip();
+			channel.write(header);
+		}
+
+		@Override
+		public boolean skip(int chunk) {
+			return sink.skip(chunk);
+		}
+
+		@Override
+		public void accept(int chunk, List<T> items) {
+			// encode outside the lock, so only the write is serialized
+			Encoder encoder = new Encoder();
+			for (T item : items)
+				encoder.writeMap(factory.attributes(item));
+
+			ByteBuffer record = ByteBuffer.allocate(RECORD + encoder.size()).putInt(chunk).putInt(items.size())
+					.putInt(encoder.size()).put(encoder.toByteArray());
+			record.flip();
+			synchronized (this) {
+				try {
+					while (record.hasRemaining())
+						channel.write(record);
+				} catch (IOException ex) {
+					System.err.println("ERROR: Unable to write snapshot: " + ex.getMessage());
+					System.exit(1);
+				}
+				written++;
+			}
+
+			sink.accept(chunk, items);
+		}
+
+		/**
+		 * make the snapshot visible once every chunk has been recorded, or drop it if any is missing
+		 * @return true if the snapshot was saved
+		 * @throws IOException - the file could not be written or moved
+		 */
+		public synchronized boolean commit() throws IOException {
+			channel.force(false);
+			channel.close();
+
+			if (written != chunks) {
+				Files.delete(temp);
+				return false;
+			}
+
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		}
+	}
+
+	// writes attribute maps, numbering each distinct string of the chunk the first time it is written
+	private static class Encoder extends ByteArrayOutputStream {
+		private Map<String, Integer> strings = new HashMap<String, Integer>();
+
+		void writeMap(Map<String, AttributeValue> map) {
+			writeVarint(map.size());
+			for (Map.Entry<String, AttributeValue> entry : map.entrySet()) {
+				writeString(entry.getKey());
+				writeValue(entry.getValue());
+			}
+		}
+
+		void writeValue(AttributeValue value) {
+			if (value.getS() != null) {
+				write(S);
+				writeString(value.getS());
+			} else if (value.getN() != null) {
+				write(N);
+				writeString(value.getN());
+			} else if (value.getB() != null) {
+				write(B);
+				writeBytes(value.getB());
+			} else if (value.getBOOL() != null) {
+				write(BOOL);
+				write(value.getBOOL() ? 1 : 0);
+			} else if (value.getNULL() != null) {
+				write(NULL);
+			} else if (value.getM() != null) {
+				write(M);
+				writeMap(value.getM());
+			} else if (value.getL() != null) {
+				write(L);
+				writeVarint(value.getL().size());
+				for (AttributeValue element : value.getL())
+					writeValue(element);
+			} else if (value.getSS() != null || value.getNS() != null) {
+				List<String> set = (value.getSS() != null ? value.getSS() : value.getNS());
+				write(value.getSS() != null ? SS : NS);
+				writeVarint(set.size());
+				for (String element : set)
+					writeString(element);
+			} else if (value.getBS() != null) {
+				write(BS);
+				writeVarint(value.getBS().size());
+				for (ByteBuffer element : value.getBS())
+					writeBytes(element);
+			} else
+				throw new IllegalArgumentException("Unable to snapshot an attribute value without a type.");
+		}
+
+		void writeString(String s) {
+			Integer index = strings.get(s);
+			if (index != null) {
+				writeVarint(index);
+				return;
+			}
+
+			// a new string is announced with the next unused number and followed by its bytes
+			writeVarint(strings.size());
+			strings.put(s, strings.size());
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeVarint(bytes.length);
+			write(bytes, 0, bytes.length);
+		}
+
+		void writeBytes(ByteBuffer value) {
+			ByteBuffer bytes = value.duplicate();
+			writeVarint(bytes.remaining());
+			while (bytes.hasRemaining())
+				write(bytes.get());
+		}
+
+		void writeVarint(int value) {
+			while ((value & ~0x7f) != 0) {
+				write((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			write(value);
+		}
+	}
+
+	private static Map<String, AttributeValue> readMap(ByteBuffer buffer, List<String> strings) {
+		int size = readVarint(buffer);
+		Map<String, AttributeValue> map = new LinkedHashMap<String, AttributeValue>(size * 2);
+		for (int i = 0; i < size; i++) {
+			String name = readString(buffer, strings);
+			map.put(name, readValue(buffer, strings));
+		}
+
+		return map;
+	}
+
+	private static AttributeValue readValue(ByteBuffer buffer, List<String> strings) {
+		byte type = buffer.get();
+		int size;
+		switch (type) {
+		case S:
+			return new AttributeValue(readString(buffer, strings));
+		case N:
+			return new AttributeValue().withN(readString(buffer, strings));
+		case B:
+			return new AttributeValue().withB(readBytes(buffer));
+		case BOOL:
+			return new AttributeValue().withBOOL(buffer.get() != 0);
+		case NULL:
+			return new AttributeValue().withNULL(true);
+		case M:
+			return new AttributeValue().withM(readMap(buffer, strings));
+		case L:
+			size = readVarint(buffer);
+			List<AttributeValue> list = new ArrayList<AttributeValue>(size);
+			for (int i = 0; i < size; i++)
+				list.add(readValue(buffer, strings));
+			return new AttributeValue().withL(list);
+		case SS:
+		case NS:
+			size = readVarint(buffer);
+			List<String> set = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++)
+				set.add(readString(buffer, strings));
+			return (type == SS ? new AttributeValue().withSS(set) : new AttributeValue().withNS(set));
+		case BS:
+			size = readVarint(buffer);
+			List<ByteBuffer> binaries = new ArrayList<ByteBuffer>(size);
+			for (int i = 0; i < size; i++)
+				binaries.add(readBytes(buffer));
+			return new AttributeValue().withBS(binaries);
+		default:
+			throw new IllegalStateException(String.format("Unknown attribute type %d in snapshot.", type));
+		}
+	}
+
+	private static String readString(ByteBuffer buffer, List<String> strings) {
+		int index = readVarint(buffer);
+		if (index < strings.size())
+			return strings.get(index);
+
+		byte[] bytes = new byte[readVarint(buffer)];
+		buffer.get(bytes);
+		String s = new String(bytes, StandardCharsets.UTF_8);
+		strings.add(s);
+		return s;
+	}
+
+	private static ByteBuffer readBytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[readVarint(buffer)];
+		buffer.get(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	private static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.amazonaws.TableLoader;
+
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Builds the entities written by the demos in one representation, and the batch write that puts a list of them
+ * @author rickhou
+ *
+ * @param <T> - the representation of an entity
+ */
+public interface EntityFactory<T> {
+	T donor(String pk);
+
+	T data(String pk, String gsipk, String data);
+
+	T customer(String pk, String email);
+
+	T order(String pk, String customerId, String date, int amount);
+
+	T invoice(String orderId, String sk, String customerId, String date, int amount);
+
+	T orderItem(String orderId, String sk, String productId, String customerId, String date, int qty, int price);
+
+	T shipment(String orderId, String sk, String warehouseId, String date, String method);
+
+	T shipItem(String orderId, String sk, String shipmentId, String productId, int qty);
+
+	T warehouse(String pk, String city, String street, String zipCode);
+
+	T product(String pk, String warehouseId, int qty, int price);
+
+	/**
+	 * @param entity - the entity
+	 * @return the value of its type attribute
+	 */
+	String type(T entity);
+
+	/**
+	 * @param table - the table to write to
+	 * @param entities - up to 25 entities
+	 * @return the batch write putting the entities
+	 */
+	BatchLoad batch(String table, List<T> entities);
+
+	/**
+	 * @param entity - the entity
+	 * @return its low-level attribute map
+	 */
+	Map<String, AttributeValue> attributes(T entity);
+
+	/**
+	 * @param attributes - a low-level attribute map
+	 * @return the entity holding the attributes
+	 */
+	T entity(Map<String, AttributeValue> attributes);
+}
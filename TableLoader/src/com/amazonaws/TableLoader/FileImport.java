@@ -0,0 +1,509 @@
+package com.amazonaws.TableLoader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Imports items from JSON Lines, DynamoDB JSON or CSV files. Each file is cut into splits that the import threads pull
+ * until none are left, and each split is memory mapped with a short tail past its end. A split starts at the first
+ * record boundary after its offset and ends with the record that straddles its end, mapping further only if that
+ * record runs past the tail, so every record is read exactly once whatever the split size. Records are parsed
+ * straight into attribute maps, with Jackson's streaming parser for the JSON formats, and written through a
+ * LoadPipeline per table.
+ * @author rickhou
+ *
+ */
+public class FileImport {
+	// a split is about this size, small enough that the threads finish at about the same time
+	static final long SPLIT_BYTES = 32L * 1024 * 1024;
+	// a split is mapped this far past its end, enough for the record that straddles it unless that record is huge
+	static final long TAIL_BYTES = 1024 * 1024;
+	// records handed to a pipeline at a time
+	private static final int CHUNK_SIZE = 1000;
+	private static final JsonFactory JSON = new JsonFactory();
+
+	/**
+	 * The layout of the records in a file
+	 */
+	public enum Format {
+		// one JSON object per line, values typed by their JSON type
+		JSON,
+		// one object per line as written by DynamoDB exports, {"Item":{"PK":{"S":"..."}}} or the bare item
+		DYNAMODB,
+		// a header line of attribute names, each optionally suffixed with :S, :N or :BOOL, then one item per line
+		CSV
+	}
+
+	private List<Source> sources = new ArrayList<Source>();
+	private Map<String, LoadPipeline<Map<String, AttributeValue>>> pipelines;
+	private LongAdder records = new LongAdder();
+	private long bytes;
+
+	/**
+	 * Constructor
+	 * @param pipelines - the pipeline writing each table, by table name
+	 */
+	public FileImport(Map<String, LoadPipeline<Map<String, AttributeValue>>> pipelines) {
+		this.pipelines = pipelines;
+	}
+
+	/**
+	 * add a file to the import
+	 * @param path - the file
+	 * @param table - the table its items are written to, which must have a pipeline
+	 * @param format - the layout of its records
+	 * @throws IOException - the file could not be opened
+	 */
+	public void add(String path, String table, Format format) throws IOException {
+		Source source = new Source(path, pipelines.get(table), format);
+		sources.add(source);
+		bytes += source.size;
+	}
+
+	/**
+	 * @param path - a file
+	 * @return the format its extension suggests, CSV for .csv and JSON otherwise
+	 */
+	public static Format guess(String path) {
+		return (path.toLowerCase().endsWith(".csv") ? Format.CSV : Format.JSON);
+	}
+
+	/**
+	 * import every split of every file on the given number of tasks, which pull splits until none are left
+	 * @param group - the group the tasks run in, awaited by the caller
+	 * @param threads - the number of tasks
+	 */
+	public void run(TaskGroup group, int threads) {
+		List<long[]> splits = new ArrayList<long[]>();
+		for (int s = 0; s < sources.size(); s++)
+			for (long start = sources.get(s).first; start < sources.get(s).size; start += SPLIT_BYTES)
+				splits.add(new long[] { s, start, Math.min(sources.get(s).size, start + SPLIT_BYTES) });
+
+		AtomicInteger next = new AtomicInteger();
+		for (int t = 0; t < Math.min(threads, splits.size()); t++) {
+			group.submit(() -> {
+				int split;
+				while ((split = next.getAndIncrement()) < splits.size()) {
+					long[] range = splits.get(split);
+					Source source = sources.get((int) range[0]);
+					try {
+						source.read(range[1], range[2]);
+					} catch (IOException ex) {
+						throw new UncheckedIOException(
+								String.format("Unable to import [%s] from byte %d: %s", source.path, range[1],
+										ex.getMessage()),
+								ex);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * close the files, once the tasks of run have finished
+	 * @throws IOException - a file could not be closed
+	 */
+	public void close() throws IOException {
+		for (Source source : sources)
+			source.channel.close();
+	}
+
+	/**
+	 * @return the number of records read
+	 */
+	public long getRecords() {
+		return records.sum();
+	}
+
+	/**
+	 * @return the total size of the files
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * A file being imported
+	 */
+	private class Source {
+		String path;
+		LoadPipeline<Map<String, AttributeValue>> pipeline;
+		Format format;
+		FileChannel channel;
+		long size, first;
+		// the CSV attribute names and their types
+		String[] names, types;
+
+		Source(String path, LoadPipeline<Map<String, AttributeValue>> pipeline, Format format) throws IOException {
+			this.path = path;
+			this.pipeline = pipeline;
+			this.format = format;
+			this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+			this.size = channel.size();
+
+			// the header is read once and the first split starts after it
+			if (format == Format.CSV && size > 0) {
+				List<String> header = new ArrayList<String>();
+				ByteBuffer buffer;
+				long length = TAIL_BYTES;
+				do {
+					header.clear();
+					buffer = map(0, length);
+					first = csvRecord(buffer, header, new byte[256]);
+					length *= 2;
+				} while (cutOff(buffer, 0));
+
+				names = new String[header.size()];
+				types = new String[header.size()];
+				for (int i = 0; i < header.size(); i++) {
+					String[] column = header.get(i).split(":", 2);
+					names[i] = column[0];
+					types[i] = (column.length > 1 ? column[1] : "S");
+					if (!Arrays.asList("S", "N", "BOOL").contains(types[i]))
+						throw new IOException(
+								String.format("Unknown type [%s] of CSV column [%s]", types[i], names[i]));
+				}
+			}
+		}
+
+		// map the given length from the offset, or as much of it as the file holds
+		ByteBuffer map(long offset, long length) throws IOException {
+			return channel.map(FileChannel.MapMode.READ_ONLY, offset,
+					Math.min(Math.min(size - offset, length), Integer.MAX_VALUE));
+		}
+
+		// true if the record just read was cut off by the end of a mapping that starts at the offset
+		boolean cutOff(ByteBuffer buffer, long offset) {
+			return !buffer.hasRemaining() && offset + buffer.limit() < size && buffer.get(buffer.limit() - 1) != '\n';
+		}
+
+		void read(long start, long end) throws IOException {
+			// a split that does not start a line begins inside a record the previous split reads, so it skips to the
+			// next line, looking at the byte before the split to tell whether it starts one
+			long base = (start > first ? start - 1 : start);
+			ByteBuffer buffer = map(base, end - base + TAIL_BYTES);
+			if (start > first && buffer.get() != '\n')
+				skipLine(buffer);
+
+			// records starting before the end of the split are read, positions are relative to the mapping
+			List<Map<String, AttributeValue>> chunk = new ArrayList<Map<String, AttributeValue>>(CHUNK_SIZE);
+			int limit = (int) (end - base);
+			if (format == Format.CSV) {
+				List<String> fields = new ArrayList<String>(names.length);
+				byte[] scratch = new byte[256];
+				while (buffer.position() < limit) {
+					int record = buffer.position();
+					fields.clear();
+					csvRecord(buffer, fields, scratch);
+
+					// a record running past the mapping is read again from a mapping twice its length so far
+					if (cutOff(buffer, base)) {
+						base += record;
+						limit -= record;
+						buffer = map(base, 2L * (buffer.limit() - record));
+						continue;
+					}
+
+					if (fields.size() == 1 && fields.get(0).isEmpty())
+						continue;
+
+					chunk = add(chunk, csvItem(fields));
+				}
+			} else {
+				// the stream starts at the split's first record, so parser offsets are relative to it
+				int begin = buffer.position();
+				JsonParser parser = JSON.createParser(new BufferStream(this, buffer, base + buffer.limit()));
+				JsonToken token;
+				while ((token = parser.nextToken()) != null) {
+					long offset = begin + parser.getTokenLocation().getByteOffset();
+					if (offset >= limit)
+						break;
+					if (token != JsonToken.START_OBJECT)
+						throw new IOException(String.format("Expected an object at byte %d", base + offset));
+
+					chunk = add(chunk, (format == Format.DYNAMODB ? dynamoItem(parser) : jsonMap(parser)));
+				}
+				parser.close();
+			}
+
+			if (!chunk.isEmpty())
+				pipeline.accept(-1, chunk);
+		}
+
+		List<Map<String, AttributeValue>> add(List<Map<String, AttributeValue>> chunk,
+				Map<String, AttributeValue> item) {
+			records.increment();
+			chunk.add(item);
+			if (chunk.size() < CHUNK_SIZE)
+				return chunk;
+
+			pipeline.accept(-1, chunk);
+			return new ArrayList<Map<String, AttributeValue>>(CHUNK_SIZE);
+		}
+
+		Map<String, AttributeValue> csvItem(List<String> fields) throws IOException {
+			if (fields.size() != names.length)
+				throw new IOException(String.format("Expected %d CSV fields but found %d", names.length, fields.size()));
+
+			Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(names.length * 2);
+			for (int i = 0; i < names.length; i++) {
+				// an empty field leaves the attribute out of the item
+				String field = fields.get(i);
+				if (field.isEmpty())
+					continue;
+
+				switch (types[i]) {
+				case "N":
+					item.put(names[i], new AttributeValue().withN(field));
+					break;
+				case "BOOL":
+					item.put(names[i], new AttributeValue().withBOOL(Boolean.parseBoolean(field)));
+					break;
+				default:
+					item.put(names[i], new AttributeValue(field));
+					break;
+				}
+			}
+
+			return item;
+		}
+	}
+
+	private static void skipLine(ByteBuffer buffer) {
+		while (buffer.hasRemaining())
+			if (buffer.get() == '\n')
+				return;
+	}
+
+	/**
+	 * read one CSV record, leaving the buffer after its line break. Quoted fields may hold commas and doubled quotes
+	 * but not line breaks, since splits are cut on line breaks.
+	 * @return the buffer position after the record
+	 */
+	private static int csvRecord(ByteBuffer buffer, List<String> fields, byte[] scratch) throws IOException {
+		int length = 0;
+		boolean quoted = false, wasQuoted = false;
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			if (quoted) {
+				if (b == '"') {
+					if (buffer.hasRemaining() && buffer.get(buffer.position()) == '"')
+						buffer.get();
+					else {
+						quoted = false;
+						continue;
+					}
+				} else if (b == '\n')
+					throw new IOException("Line break in a quoted CSV field");
+			} else if (b == '"' && length == 0 && !wasQuoted) {
+				quoted = wasQuoted = true;
+				continue;
+			} else if (b == ',' || b == '\n') {
+				// a CRLF line ends with a carriage return that is not part of the field
+				if (b == '\n' && !wasQuoted && length > 0 && scratch[length - 1] == '\r')
+					length--;
+				fields.add(new String(scratch, 0, length, StandardCharsets.UTF_8));
+				length = 0;
+				wasQuoted = false;
+				if (b == '\n')
+					return buffer.position();
+				continue;
+			} else if (b == '\r' && wasQuoted)
+				continue;
+
+			if (length == scratch.length)
+				scratch = Arrays.copyOf(scratch, length * 2);
+			scratch[length++] = b;
+		}
+
+		fields.add(new String(scratch, 0, length, StandardCharsets.UTF_8));
+		return buffer.position();
+	}
+
+	// a JSON object whose values are typed by their JSON type, with the parser on its START_OBJECT
+	private static Map<String, AttributeValue> jsonMap(JsonParser parser) throws IOException {
+		Map<String, AttributeValue> map = new LinkedHashMap<String, AttributeValue>();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			parser.nextToken();
+			map.put(name, jsonValue(parser));
+		}
+
+		return map;
+	}
+
+	private static AttributeValue jsonValue(JsonParser parser) throws IOException {
+		switch (parser.currentToken()) {
+		case VALUE_STRING:
+			return new AttributeValue(parser.getText());
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			// keep the number's text so no precision is lost
+			return new AttributeValue().withN(parser.getText());
+		case VALUE_TRUE:
+		case VALUE_FALSE:
+			return new AttributeValue().withBOOL(parser.getBooleanValue());
+		case VALUE_NULL:
+			return new AttributeValue().withNULL(true);
+		case START_ARRAY:
+			List<AttributeValue> list = new ArrayList<AttributeValue>();
+			while (parser.nextToken() != JsonToken.END_ARRAY)
+				list.add(jsonValue(parser));
+			return new AttributeValue().withL(list);
+		case START_OBJECT:
+			return new AttributeValue().withM(jsonMap(parser));
+		default:
+			throw new IOException(String.format("Unexpected %s", parser.currentToken()));
+		}
+	}
+
+	// a DynamoDB JSON item, either bare or wrapped in the "Item" attribute of an export
+	private static Map<String, AttributeValue> dynamoItem(JsonParser parser) throws IOException {
+		Map<String, AttributeValue> item = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			parser.nextToken();
+			if (name.equals("Item") && item == null) {
+				item = dynamoMap(parser);
+				continue;
+			}
+
+			if (item == null)
+				item = new LinkedHashMap<String, AttributeValue>();
+			item.put(name, dynamoValue(parser));
+		}
+
+		return (item != null ? item : new LinkedHashMap<String, AttributeValue>());
+	}
+
+	private static Map<String, AttributeValue> dynamoMap(JsonParser parser) throws IOException {
+		Map<String, AttributeValue> map = new LinkedHashMap<String, AttributeValue>();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			parser.nextToken();
+			map.put(name, dynamoValue(parser));
+		}
+
+		return map;
+	}
+
+	// a typed value such as {"S":"text"}, with the parser on its START_OBJECT
+	private static AttributeValue dynamoValue(JsonParser parser) throws IOException {
+		if (parser.currentToken() != JsonToken.START_OBJECT || parser.nextToken() != JsonToken.FIELD_NAME)
+			throw new IOException("Expected a typed value such as {\"S\":\"text\"}");
+
+		String type = parser.getCurrentName();
+		parser.nextToken();
+		AttributeValue value = new AttributeValue();
+		switch (type) {
+		case "S":
+			value.setS(parser.getText());
+			break;
+		case "N":
+			value.setN(parser.getText());
+			break;
+		case "B":
+			value.setB(ByteBuffer.wrap(parser.getBinaryValue()));
+			break;
+		case "BOOL":
+			value.setBOOL(parser.getBooleanValue());
+			break;
+		case "NULL":
+			value.setNULL(true);
+			break;
+		case "SS":
+		case "NS":
+			List<String> strings = new ArrayList<String>();
+			while (parser.nextToken() != JsonToken.END_ARRAY)
+				strings.add(parser.getText());
+			if (type.equals("SS"))
+				value.setSS(strings);
+			else
+				value.setNS(strings);
+			break;
+		case "BS":
+			List<ByteBuffer> binaries = new ArrayList<ByteBuffer>();
+			while (parser.nextToken() != JsonToken.END_ARRAY)
+				binaries.add(ByteBuffer.wrap(parser.getBinaryValue()));
+			value.setBS(binaries);
+			break;
+		case "L":
+			List<AttributeValue> list = new ArrayList<AttributeValue>();
+			while (parser.nextToken() != JsonToken.END_ARRAY)
+				list.add(dynamoValue(parser));
+			value.setL(list);
+			break;
+		case "M":
+			value.setM(dynamoMap(parser));
+			break;
+		default:
+			throw new IOException(String.format("Unknown attribute type [%s]", type));
+		}
+
+		if (parser.nextToken() != JsonToken.END_OBJECT)
+			throw new IOException(String.format("Expected one type in the value of type [%s]", type));
+		return value;
+	}
+
+	// reads a mapped buffer without copying it to the heap first, mapping the next tail of the file if the last
+	// record runs past it
+	private static class BufferStream extends InputStream {
+		private Source source;
+		private ByteBuffer buffer;
+		private long next;
+
+		/**
+		 * @param source - the file the buffer maps
+		 * @param buffer - the mapping to read from its position
+		 * @param next - the file offset after the end of the mapping
+		 */
+		BufferStream(Source source, ByteBuffer buffer, long next) {
+			this.source = source;
+			this.buffer = buffer;
+			this.next = next;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return (remaining() ? buffer.get() & 0xff : -1);
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (!remaining())
+				return -1;
+
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		private boolean remaining() throws IOException {
+			if (!buffer.hasRemaining() && next < source.size) {
+				buffer = source.map(next, TAIL_BYTES);
+				next += buffer.limit();
+			}
+
+			return buffer.hasRemaining();
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.amazonaws.TableLoader;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Builds the items of each entity type written by the demos
+ * @author rickhou
+ *
+ */
+public class ItemFactory {
+	private static final char[] CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890".toCharArray();
+	private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss")
+			.withZone(ZoneOffset.UTC);
+	private static final Map<String, Object> DESCRIPTION = Collections
+			.<String, Object>singletonMap("S", "An amazing product.");
+
+	/**
+	 * the Document API representation, converted to attribute maps by DynamoDB.batchWriteItem
+	 */
+	public static final EntityFactory<Item> ITEMS = new EntityFactory<Item>() {
+		public Item donor(String pk) {
+			return ItemFactory.donor(pk);
+		}
+
+		public Item data(String pk, String gsipk, String data) {
+			return ItemFactory.data(pk, gsipk, data);
+		}
+
+		public Item customer(String pk, String email) {
+			return ItemFactory.customer(pk, email);
+		}
+
+		public Item order(String pk, String customerId, String date, int amount) {
+			return ItemFactory.order(pk, customerId, date, amount);
+		}
+
+		public Item invoice(String orderId, String sk, String customerId, String date, int amount) {
+			return ItemFactory.invoice(orderId, sk, customerId, date, amount);
+		}
+
+		public Item orderItem(String orderId, String sk, String productId, String customerId, String date, int qty,
+				int price) {
+			return ItemFactory.orderItem(orderId, sk, productId, customerId, date, qty, price);
+		}
+
+		public Item shipment(String orderId, String sk, String warehouseId, String date, String method) {
+			return ItemFactory.shipment(orderId, sk, warehouseId, date, method);
+		}
+
+		public Item shipItem(String orderId, String sk, String shipmentId, String productId, int qty) {
+			return ItemFactory.shipItem(orderId, sk, shipmentId, productId, qty);
+		}
+
+		public Item warehouse(String pk, String city, String street, String zipCode) {
+			return ItemFactory.warehouse(pk, city, street, zipCode);
+		}
+
+		public Item product(String pk, String warehouseId, int qty, int price) {
+			return ItemFactory.product(pk, warehouseId, qty, price);
+		}
+
+		public String type(Item entity) {
+			return entity.getString("type");
+		}
+
+		public BatchLoad batch(String table, List<Item> entities) {
+			return new BatchLoad(new TableWriteItems(table).withItemsToPut(entities));
+		}
+
+		public Map<String, AttributeValue> attributes(Item entity) {
+			return ItemUtils.toAttributeValues(entity);
+		}
+
+		public Item entity(Map<String, AttributeValue> attributes) {
+			return ItemUtils.toItem(attributes);
+		}
+	};
+
+	public static Item donor(String pk) {
+		return new Item().withString("PK", pk).withString("SK", "A");
+	}
+
+	public static Item data(String pk, String gsipk, String data) {
+		return new Item().withString("PK", pk).withString("SK", "A").withString("GSI1PK", gsipk)
+				.withString("GSI1SK", pk).withString("data", data);
+	}
+
+	public static Item customer(String pk, String email) {
+		return new Item().withString("PK", pk).withString("SK", pk).withString("type", "customer")
+				.withString("email", email);
+	}
+
+	public static Item order(String pk, String customerId, String date, int amount) {
+		return new Item().withString("PK", pk).withString("SK", customerId).withString("type", "order")
+				.withString("date", date).withNumber("amount", amount);
+	}
+
+	public static Item invoice(String orderId, String sk, String customerId, String date, int amount) {
+		return new Item().withString("PK", orderId).withString("SK", sk).withString("type", "invoice")
+				.withString("GSI1PK", sk).withString("GSI1SK", sk).withString("GSI2PK", customerId)
+				.withString("GSI2SK", date).withNumber("amount", amount).withString("date", date);
+	}
+
+	public static Item orderItem(String orderId, String sk, String productId, String customerId, String date, int qty,
+			Number price) {
+		return new Item().withString("PK", orderId).withString("SK", sk).withString("GSI1PK", productId)
+				.withString("type", "orderItem").withString("GSI1SK", date).withString("GSI2PK", customerId)
+				.withString("GSI2SK", date).withNumber("qty", qty).withNumber("price", price);
+	}
+
+	public static Item shipment(String orderId, String sk, String warehouseId, String date, String method) {
+		return new Item().withString("PK", orderId).withString("SK", sk).withString("type", "shipment")
+				.withString("GSI1PK", sk).withString("GSI1SK", sk).withString("GSI2PK", warehouseId)
+				.withString("GSI2SK", date).withString("method", method);
+	}
+
+	public static Item shipItem(String orderId, String sk, String shipmentId, String productId, Number qty) {
+		return new Item().withString("PK", orderId).withString("SK", sk).withString("type", "shipItem")
+				.withString("GSI1PK", shipmentId).withString("GSI1SK", productId).withNumber("qty", qty);
+	}
+
+	public static Item warehouse(String pk, String city, String street, String zipCode) {
+		Map<String, Object> address = new HashMap<String, Object>();
+		address.put("Country", Collections.singletonMap("S", "Sweden"));
+		address.put("County", Collections.singletonMap("S", "Vastra Gotaland"));
+		address.put("City", Collections.singletonMap("S", city));
+		address.put("Street", Collections.singletonMap("S", street));
+		address.put("Number", Collections.singletonMap("S", "20"));
+		address.put("ZipCode", Collections.singletonMap("S", zipCode));
+
+		return new Item().withString("PK", pk).withString("SK", pk).withString("type", "warehouse")
+				.withMap("address", address);
+	}
+
+	public static Item product(String pk, String warehouseId, int qty, int price) {
+		// the same shape JSONObject.toMap produced, without parsing a document per product
+		Map<String, Object> detail = new HashMap<String, Object>();
+		detail.put("Name", Collections.singletonMap("S", "Product" + pk.substring(2)));
+		detail.put("Description", DESCRIPTION);
+
+		return new Item().withString("PK", pk).withString("SK", warehouseId).withString("type", "warehouseItem")
+				.withString("GSI2PK", pk).withNumber("qty", qty).withMap("detail", detail)
+				.withNumber("price", price);
+	}
+
+	/**
+	 * format a timestamp the way every date attribute is stored
+	 * @param millis - epoch milliseconds
+	 * @return the formatted date
+	 */
+	public static String date(long millis) {
+		return DATE.format(Instant.ofEpochMilli(millis));
+	}
+
+	/**
+	 * @param length - the string length
+	 * @param random - the random source
+	 * @return a random string of upper case letters and digits
+	 */
+	public static String randomString(int length, Random random) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = CHARS[random.nextInt(CHARS.length)];
+
+		return new String(chars);
+	}
+
+	/**
+	 * @param length - the string length
+	 * @param random - the random source
+	 * @return a random string of upper case letters and digits
+	 */
+	public static String randomString(int length, SplittableRandom random) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = CHARS[random.nextInt(CHARS.length)];
+
+		return new String(chars);
+	}
+
+	/**
+	 * @param size - the payload size in bytes
+	 * @return a payload of the given size
+	 */
+	public static String payload(int size) {
+		char[] chars = new char[size];
+		Arrays.fill(chars, 'X');
+
+		return new String(chars);
+	}
+}
@@ -0,0 +1,147 @@
+package com.amazonaws.TableLoader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only journal of the chunks of a deterministic dataset whose items have all been acknowledged by DynamoDB,
+ * so an interrupted load can resume by skipping them. The file holds a header identifying the dataset followed by
+ * one 4 byte chunk number per completed chunk, each forced to disk before the next is appended.
+ * @author rickhou
+ *
+ */
+public class Journal {
+	private static final int MAGIC = 0x544c4a31, HEADER = 20, RECORD = 4;
+
+	private FileChannel channel;
+	private BitSet completed = new BitSet();
+	private String path;
+	private long seed;
+
+	/**
+	 * Constructor, creating the journal or reading the chunks recorded in an existing one. A journal that records no
+	 * chunks is started over for this load.
+	 * @param path - the journal file
+	 * @param fingerprint - identifies the parameters of the dataset, other than the seed
+	 * @param seed - the seed of the dataset, replaced by the recorded seed when the journal records chunks
+	 * @throws IOException - the file could not be read or written
+	 */
+	public Journal(String path, long fingerprint, long seed) throws IOException {
+		this.path = path;
+		this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		// a record torn by a crash is dropped, its chunk is written again
+		long end = (channel.size() < HEADER ? HEADER : HEADER + (channel.size() - HEADER) / RECORD * RECORD);
+		if (end == HEADER) {
+			// no chunk was written, so the header is rewritten for this dataset and seed
+			ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putLong(fingerprint).putLong(seed);
+			header.flip();
+			channel.truncate(0).write(header, 0);
+			channel.force(false);
+			channel.position(HEADER);
+			this.seed = seed;
+			return;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		channel.read(header, 0);
+		header.flip();
+		if (header.getInt() != MAGIC || header.getLong() != fingerprint)
+			throw new IllegalStateException(
+					String.format("Journal [%s] was written for a different load, remove it to start over.", path));
+		this.seed = header.getLong();
+
+		ByteBuffer records = ByteBuffer.allocate((int) (end - HEADER));
+		channel.read(records, HEADER);
+		records.flip();
+		while (records.hasRemaining())
+			completed.set(records.getInt());
+
+		channel.truncate(end);
+		channel.position(end);
+	}
+
+	/**
+	 * @param chunk - a chunk number
+	 * @return true if every item of the chunk has been written
+	 */
+	public synchronized boolean isComplete(int chunk) {
+		return completed.get(chunk);
+	}
+
+	/**
+	 * @return the number of chunks recorded as written
+	 */
+	public synchronized int getCompleted() {
+		return completed.cardinality();
+	}
+
+	/**
+	 * @return the seed the dataset was generated with
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @return the journal file
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * start tracking a chunk
+	 * @param chunk - the chunk number
+	 * @param requests - the number of write requests that must be acknowledged before the chunk is complete
+	 * @return the checkpoint batch writes acknowledge the chunk's requests to
+	 */
+	public Checkpoint checkpoint(int chunk, int requests) {
+		return new Checkpoint(chunk, requests);
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private synchronized void complete(int chunk) {
+		try {
+			ByteBuffer record = ByteBuffer.allocate(RECORD).putInt(chunk);
+			record.flip();
+			channel.write(record);
+			channel.force(false);
+			completed.set(chunk);
+		} catch (IOException ex) {
+			System.err.println("ERROR: Unable to write journal: " + ex.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Counts down the write requests of a chunk and journals the chunk when the last one is acknowledged
+	 */
+	public class Checkpoint {
+		private int chunk;
+		private AtomicInteger remaining;
+
+		private Checkpoint(int chunk, int requests) {
+			this.chunk = chunk;
+			this.remaining = new AtomicInteger(requests);
+		}
+
+		/**
+		 * acknowledge write requests of the chunk
+		 * @param requests - the number of requests acknowledged
+		 */
+		public void written(int requests) {
+			if (remaining.addAndGet(-requests) == 0)
+				complete(chunk);
+		}
+	}
+}
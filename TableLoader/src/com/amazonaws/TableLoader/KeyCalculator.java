@@ -0,0 +1,108 @@
+package com.amazonaws.TableLoader;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Calculates partition keys spread evenly across the hash space without touching a table. Keys are ordered by an MD5
+ * hash of their value, the hash space is cut into equal slices the way parallel scan segments cut it, and the
+ * candidate closest to the middle of each slice is kept. Only the local backend partitions and scans by this hash;
+ * DynamoDB's own partition hash is not public, so keys for a real table are found with a scan instead.
+ * @author rickhou
+ *
+ */
+public class KeyCalculator {
+	// at least this many candidates are hashed, matching the donor items the scan based search wrote
+	private static final int MIN_CANDIDATES = 10000, CANDIDATES_PER_SLICE = 64;
+	private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	});
+
+	/**
+	 * @param leadingKey - the prefix of every key, which is followed by '#' and a number
+	 * @param slices - the number of keys, one per slice of the hash space
+	 * @return the key nearest the middle of each slice in slice order, skipping any slice no candidate fell in
+	 */
+	public static List<String> keys(String leadingKey, int slices) {
+		String[] best = new String[slices];
+		long[] distance = new long[slices];
+
+		int candidates = Math.max(MIN_CANDIDATES, slices * CANDIDATES_PER_SLICE);
+		for (int i = 0; i < candidates; i++) {
+			String key = leadingKey + "#" + i;
+			long hash = hash(key);
+			int slice = slice(hash, slices);
+
+			// the middle of a slice is where its half of twice as many slices begins
+			long d = Math.abs(hash - bound(2 * slice + 1, 2 * slices));
+			if (best[slice] == null || Long.compareUnsigned(d, distance[slice]) < 0) {
+				best[slice] = key;
+				distance[slice] = d;
+			}
+		}
+
+		List<String> keys = new ArrayList<String>(slices);
+		for (String key : best)
+			if (key != null)
+				keys.add(key);
+
+		return keys;
+	}
+
+	/**
+	 * @param value - a string partition key
+	 * @return the first 8 bytes of its MD5 digest, compared unsigned
+	 */
+	public static long hash(String value) {
+		return ByteBuffer.wrap(MD5.get().digest(value.getBytes(StandardCharsets.UTF_8))).getLong();
+	}
+
+	/**
+	 * @param value - a partition key value
+	 * @return the first 8 bytes of its MD5 digest, compared unsigned
+	 */
+	public static long hash(AttributeValue value) {
+		if (value.getS() != null)
+			return hash(value.getS());
+
+		byte[] bytes;
+		if (value.getN() != null)
+			bytes = new BigDecimal(value.getN()).stripTrailingZeros().toPlainString().getBytes(StandardCharsets.UTF_8);
+		else {
+			ByteBuffer buffer = value.getB().duplicate();
+			bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+		}
+
+		return ByteBuffer.wrap(MD5.get().digest(bytes)).getLong();
+	}
+
+	/**
+	 * @param hash - a hash
+	 * @param slices - the number of equal slices the hash space is cut into
+	 * @return the slice the hash falls in
+	 */
+	static int slice(long hash, int slices) {
+		return (int) (((hash >>> 32) * slices) >>> 32);
+	}
+
+	/**
+	 * @param slice - a slice
+	 * @param slices - the number of equal slices the hash space is cut into
+	 * @return the first hash of the slice
+	 */
+	static long bound(int slice, int slices) {
+		return ((((long) slice << 32) + slices - 1) / slices) << 32;
+	}
+}
@@ -0,0 +1,171 @@
+package com.amazonaws.TableLoader;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.Select;
+
+/**
+ * Measures GSI replication lag on a sample of the items written. Each sampled item is stamped when the batch write
+ * that put it completes, then polled with a Query on its GSI key until it is visible in the index.
+ * @author rickhou
+ *
+ */
+public class LagProbe {
+	private static final long POLL = TimeUnit.MILLISECONDS.toNanos(5);
+	private static final int THREADS = 4;
+	// written items not visible in the index by then are reported as lost
+	private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+	private static volatile LagProbe active;
+
+	private ScheduledExecutorService poller = Executors.newScheduledThreadPool(THREADS, r -> {
+		Thread thread = new Thread(r, "LagProbe");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// sampled items not written yet, by partition key
+	private Map<String, String> pending = new ConcurrentHashMap<String, String>();
+	private AtomicInteger sampled = new AtomicInteger(), visible = new AtomicInteger();
+	private int unwritten, unseen;
+	private LatencyHistogram lag = new LatencyHistogram();
+	private ReadCost cost = new ReadCost();
+	private String table, index;
+
+	/**
+	 * Constructor, making this the probe batch writes report to
+	 * @param table - the table the items are written to
+	 * @param index - the GSI to poll, keyed on GSI1PK/GSI1SK style attributes named after it
+	 */
+	public LagProbe(String table, String index) {
+		this.table = table;
+		this.index = index;
+		active = this;
+	}
+
+	/**
+	 * sample an item before it is submitted for writing
+	 * @param pKey - the item's partition key, which is also its index sort key
+	 * @param indexKey - the item's index partition key
+	 */
+	public void sample(String pKey, String indexKey) {
+		pending.put(pKey, indexKey);
+		sampled.incrementAndGet();
+	}
+
+	/**
+	 * @return true if a probe is waiting for written items
+	 */
+	public static boolean isActive() {
+		return active != null;
+	}
+
+	/**
+	 * stamp the sampled items among those a batch write just put and start polling the index for them
+	 * @param pKeys - the partition keys of the items written
+	 */
+	public static void written(Collection<String> pKeys) {
+		LagProbe probe = active;
+		if (probe == null)
+			return;
+
+		long now = System.nanoTime();
+		for (String pKey : pKeys) {
+			String indexKey = probe.pending.remove(pKey);
+			if (indexKey != null)
+				probe.poller.execute(() -> probe.poll(pKey, indexKey, now));
+		}
+	}
+
+	/**
+	 * wait until every written sample is visible in the index or the timeout passes, then stop probing. Call once the
+	 * writes are done: samples whose write was never acknowledged by then are not waited for.
+	 * @return the number of items seen in the index
+	 */
+	public int await() {
+		long deadline = System.nanoTime() + TIMEOUT;
+		synchronized (this) {
+			long remaining;
+			while (visible.get() < sampled.get() - pending.size() && (remaining = deadline - System.nanoTime()) > 0) {
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				} catch (InterruptedException e) {
+					System.err.println("ERROR: " + e.getMessage());
+					System.exit(1);
+				}
+			}
+		}
+
+		active = null;
+		poller.shutdownNow();
+		unwritten = pending.size();
+		unseen = sampled.get() - unwritten - visible.get();
+		return visible.get();
+	}
+
+	/**
+	 * @return the samples whose write was never acknowledged
+	 */
+	public int getUnwritten() {
+		return unwritten;
+	}
+
+	/**
+	 * @return the samples written but not seen in the index before the timeout
+	 */
+	public int getUnseen() {
+		return unseen;
+	}
+
+	/**
+	 * @return the time from write to visibility of every sampled item
+	 */
+	public LatencyHistogram getLag() {
+		return lag;
+	}
+
+	/**
+	 * @return the requests and capacity spent polling
+	 */
+	public ReadCost getCost() {
+		return cost;
+	}
+
+	// query the index for the item's keys, polling again shortly if it has not arrived yet
+	private void poll(String pKey, String indexKey, long written) {
+		QueryRequest request = new QueryRequest().withTableName(table).withIndexName(index)
+				.withKeyConditionExpression(String.format("%sPK = :pk AND %sSK = :sk", index, index))
+				.addExpressionAttributeValuesEntry(":pk", new AttributeValue(indexKey))
+				.addExpressionAttributeValuesEntry(":sk", new AttributeValue(pKey)).withSelect(Select.COUNT)
+				.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
+		long start = System.nanoTime();
+		try {
+			QueryResult result = Main.client.query(request);
+			cost.record(result.getConsumedCapacity());
+
+			if (result.getCount() > 0) {
+				// the item was visible no later than the query that found it was sent
+				lag.record(start - written);
+				synchronized (this) {
+					visible.incrementAndGet();
+					notifyAll();
+				}
+				return;
+			}
+		} catch (AmazonClientException ex) {
+			// throttled or timed out after the client's own retries, so try again on the next poll
+		}
+
+		poller.schedule(() -> poll(pKey, indexKey, written), POLL, TimeUnit.NANOSECONDS);
+	}
+}
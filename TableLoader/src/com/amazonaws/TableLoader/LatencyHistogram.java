@@ -0,0 +1,121 @@
+package com.amazonaws.TableLoader;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent log-linear latency histogram with microsecond resolution and under 2% value error
+ * @author rickhou
+ *
+ */
+public class LatencyHistogram {
+	// 128 linear sub-buckets for values under 128us, then 64 per power of two up to 2^41us
+	private static final int SUB_BUCKETS = 128, HALF = 64, BUCKETS = 35;
+	private static Map<String, LatencyHistogram> named = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + BUCKETS * HALF);
+	private final AtomicLong max = new AtomicLong();
+	private final LongAdder total = new LongAdder();
+
+	/**
+	 * get a shared histogram by name, creating it on first use
+	 * @param name - the histogram name
+	 * @return the histogram
+	 */
+	public static LatencyHistogram named(String name) {
+		return named.computeIfAbsent(name, key -> new LatencyHistogram());
+	}
+
+	/**
+	 * @return all shared histograms by name
+	 */
+	public static Map<String, LatencyHistogram> named() {
+		return new TreeMap<String, LatencyHistogram>(named);
+	}
+
+	/**
+	 * record a latency
+	 * @param nanos - the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+		counts.incrementAndGet(index(micros));
+		max.accumulateAndGet(micros, Math::max);
+		total.increment();
+	}
+
+	/**
+	 * add all values recorded in another histogram to this one
+	 * @param other - the histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length(); i++) {
+			long count = other.counts.get(i);
+			if (count > 0)
+				counts.addAndGet(i, count);
+		}
+
+		max.accumulateAndGet(other.max.get(), Math::max);
+		total.add(other.total.sum());
+	}
+
+	public long getCount() {
+		return total.sum();
+	}
+
+	/**
+	 * @param percentile - the percentile, 0 to 100
+	 * @return the latency in microseconds at or below which the percentile of values fall
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = getCount(), rank = Math.max(1L, (long) Math.ceil(percentile / 100 * count)), seen = 0L;
+		if (count == 0)
+			return 0L;
+
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highest(i), max.get());
+		}
+
+		return max.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return count, p50, p90, p99, p99.9 and max formatted in milliseconds
+	 */
+	public String summary() {
+		return String.format("n=%d p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms", getCount(),
+				getValueAtPercentile(50) / 1000.0, getValueAtPercentile(90) / 1000.0,
+				getValueAtPercentile(99) / 1000.0, getValueAtPercentile(99.9) / 1000.0, getMax() / 1000.0);
+	}
+
+	private static int index(long micros) {
+		if (micros < SUB_BUCKETS)
+			return (int) micros;
+
+		// shift so the value lands in the upper half of the sub-buckets
+		int shift = Math.min(BUCKETS, 63 - Long.numberOfLeadingZeros(micros) - 6);
+		long sub = Math.min(SUB_BUCKETS - 1, micros >> shift);
+		return SUB_BUCKETS + (shift - 1) * HALF + (int) (sub - HALF);
+	}
+
+	// the highest value that maps to the same bucket
+	private static long highest(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long sub = (index - SUB_BUCKETS) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,140 @@
+package com.amazonaws.TableLoader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streams generated items into batch writers for the single table and, optionally, the entity tables of the
+ * multi-table model, with a bounded number of batches in flight so generation stalls instead of filling the heap
+ * @author rickhou
+ *
+ * @param <T> - the representation of an entity
+ */
+public class LoadPipeline<T> implements ShopGenerator.Sink<T> {
+	// the multi-table target for each item type
+	private static final Map<String, String> TABLES = new HashMap<String, String>();
+	static {
+		TABLES.put("customer", "Customers");
+		TABLES.put("warehouse", "Warehouses");
+		TABLES.put("warehouseItem", "Products");
+		TABLES.put("order", "Orders");
+		TABLES.put("invoice", "Invoices");
+		TABLES.put("orderItem", "OrderItems");
+		TABLES.put("shipment", "Shipments");
+		TABLES.put("shipItem", "ShipmentItems");
+	}
+
+	private EntityFactory<T> factory;
+	private TaskGroup group;
+	private String table;
+	private boolean multiTable;
+	private Semaphore window;
+	private Journal journal;
+	private LongAdder items = new LongAdder(), batches = new LongAdder();
+
+	/**
+	 * Constructor
+	 * @param factory - builds the batch writes for the entities
+	 * @param group - the group the batch writes run in, awaited by the caller
+	 * @param table - the single table every item is written to
+	 * @param multiTable - also write each item to the table for its type
+	 * @param maxBatches - the maximum number of batch writes in flight
+	 * @param journal - records each numbered chunk once all of its items are written, or null
+	 */
+	public LoadPipeline(EntityFactory<T> factory, TaskGroup group, String table, boolean multiTable,
+			int maxBatches, Journal journal) {
+		this.factory = factory;
+		this.group = group;
+		this.table = table;
+		this.multiTable = multiTable;
+		this.window = new Semaphore(maxBatches);
+		this.journal = journal;
+	}
+
+	/**
+	 * @param chunk - the chunk number
+	 * @return true if the journal records the chunk as written
+	 */
+	@Override
+	public boolean skip(int chunk) {
+		return journal != null && chunk >= 0 && journal.isComplete(chunk);
+	}
+
+	/**
+	 * write a chunk of items, blocking while the window is full. Safe to call from several threads at once.
+	 */
+	@Override
+	public void accept(int chunk, List<T> chunkItems) {
+		// numbered chunks are journaled once every request written for them is acknowledged
+		Journal.Checkpoint checkpoint = (journal != null && chunk >= 0
+				? journal.checkpoint(chunk, chunkItems.size() * (multiTable ? 2 : 1)) : null);
+
+		// batches are private to the call so concurrent chunks never share a writer
+		Map<String, List<T>> writers = new HashMap<String, List<T>>();
+		for (T item : chunkItems) {
+			add(writers, table, item, checkpoint);
+			if (multiTable)
+				add(writers, TABLES.get(factory.type(item)), item, checkpoint);
+		}
+
+		// flush the partial batches left at the end of the chunk
+		for (Map.Entry<String, List<T>> entry : writers.entrySet())
+			submit(entry.getKey(), entry.getValue(), checkpoint);
+
+		items.add(chunkItems.size());
+	}
+
+	/**
+	 * @return the number of items written to the single table
+	 */
+	public long getItems() {
+		return items.sum();
+	}
+
+	/**
+	 * @return the number of batch writes submitted
+	 */
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	/**
+	 * @return the number of tables written
+	 */
+	public int getTables() {
+		return (multiTable ? TABLES.size() + 1 : 1);
+	}
+
+	private void add(Map<String, List<T>> writers, String name, T item, Journal.Checkpoint checkpoint) {
+		List<T> batch = writers.computeIfAbsent(name, key -> new ArrayList<T>(25));
+		batch.add(item);
+
+		// if the container has 25 items run the batchWrite on a new thread
+		if (batch.size() == 25)
+			submit(name, writers.remove(name), checkpoint);
+	}
+
+	private void submit(String name, List<T> batch, Journal.Checkpoint checkpoint) {
+		BatchLoad load = factory.batch(name, batch);
+		if (checkpoint != null)
+			load.setCheckpoint(checkpoint);
+		window.acquireUninterruptibly();
+		batches.increment();
+		try {
+			group.submit(() -> {
+				try {
+					load.run();
+				} finally {
+					window.release();
+				}
+			});
+		} catch (RuntimeException ex) {
+			window.release();
+			throw ex;
+		}
+	}
+}
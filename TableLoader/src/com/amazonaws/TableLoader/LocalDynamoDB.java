@@ -0,0 +1,1128 @@
+package com.amazonaws.TableLoader;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.waiters.AmazonDynamoDBWaiters;
+import com.amazonaws.services.dynamodbv2.model.AmazonDynamoDBException;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.Capacity;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.CreateGlobalSecondaryIndexAction;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.CreateTableResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexUpdate;
+import com.amazonaws.services.dynamodbv2.model.IndexStatus;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ListTablesRequest;
+import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
+import com.amazonaws.services.dynamodbv2.model.Projection;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.Select;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.TableStatus;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateTableResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * In-process stand-in for DynamoDB that keeps tables in memory. Items are spread over partitions by an MD5 hash of
+ * the partition key, each partition meters its share of the provisioned throughput, writes over capacity come back
+ * as unprocessed items, reads over capacity wait, GSIs are updated after a propagation delay and every call
+ * pays a sampled latency.
+ * @author rickhou
+ *
+ */
+public class LocalDynamoDB extends AbstractAmazonDynamoDBAsync {
+	// the throughput a single DynamoDB partition can serve
+	private static final double PARTITION_RCU = 3000, PARTITION_WCU = 1000;
+	private static final long PAGE_BYTES = 1024 * 1024;
+	// the z-score of the 99th percentile of a normal distribution
+	private static final double Z99 = 2.326;
+	private static final Pattern COMPARISON = Pattern.compile("(\\S+)\\s*(=|<=|<|>=|>)\\s*(:\\w+)");
+	private static final Pattern BETWEEN = Pattern.compile("(?i)(\\S+)\\s+BETWEEN\\s+(:\\w+)\\s+AND\\s+(:\\w+)");
+	private static final Pattern UPDATE_CLAUSE = Pattern.compile(
+			"(?i)\\s*(SET|ADD)\\s+(.+?)(?:\\s+(?=(?:SET|ADD)\\s)|\\s*$)");
+	private static final Pattern SET_ACTION = Pattern.compile("(\\S+)\\s*=\\s*(:\\w+)");
+	private static final Pattern ADD_ACTION = Pattern.compile("(\\S+)\\s+(:\\w+)");
+	private static final Pattern BEGINS_WITH = Pattern.compile("(?i)begins_with\\s*\\(\\s*([^,\\s]+)\\s*,\\s*(:\\w+)\\s*\\)");
+
+	private Map<String, LocalTable> tables = new ConcurrentHashMap<String, LocalTable>();
+	private ExecutorService executor = Executors.newCachedThreadPool(daemon("LocalDynamoDB"));
+	private ScheduledExecutorService propagator = Executors.newSingleThreadScheduledExecutor(daemon("LocalDynamoDBGSI"));
+	private AmazonDynamoDBWaiters waiters = new AmazonDynamoDBWaiters(this);
+	private LongAdder throttledWrites = new LongAdder(), throttledReads = new LongAdder();
+	private long median, lag, burst;
+	private double sigma;
+	private int fixedPartitions;
+	// each call draws its latency from the seed and the content of its request, so a seeded run replays the same
+	// latency for the same request whichever thread serves it and in whatever order
+	private long seed;
+
+	/**
+	 * Constructor
+	 * @param settings - overrides of the defaults: latency and p99 in milliseconds (4 and 20), GSI lag in
+	 *            milliseconds (100), burst seconds of unused capacity a partition keeps (300), and a fixed number of
+	 *            partitions per table and index (0 to derive it from the throughput), and the seed of the latency
+	 *            draws (random unless set)
+	 */
+	public LocalDynamoDB(Map<String, String> settings) {
+		Map<String, Long> values = new HashMap<String, Long>();
+		values.put("latency", 4L);
+		values.put("p99", 20L);
+		values.put("lag", 100L);
+		values.put("burst", 300L);
+		values.put("partitions", 0L);
+		values.put("seed", null);
+
+		for (Map.Entry<String, String> entry : settings.entrySet()) {
+			if (!values.containsKey(entry.getKey()))
+				throw new IllegalArgumentException(String.format("Unknown local setting [%s].", entry.getKey()));
+
+			values.put(entry.getKey(), Long.valueOf(entry.getValue()));
+		}
+
+		median = TimeUnit.MILLISECONDS.toNanos(values.get("latency"));
+		sigma = (median > 0 ? Math.log(Math.max(values.get("p99"), values.get("latency")) / (double) values.get("latency")) / Z99 : 0);
+		lag = TimeUnit.MILLISECONDS.toNanos(values.get("lag"));
+		burst = Math.max(1L, values.get("burst"));
+		fixedPartitions = values.get("partitions").intValue();
+		seed = (values.get("seed") != null ? values.get("seed") : System.nanoTime());
+	}
+
+	/**
+	 * @return the number of write requests returned unprocessed and read requests that waited for capacity
+	 */
+	public String report() {
+		return String.format("Local DynamoDB throttled %d writes and %d reads.", throttledWrites.sum(),
+				throttledReads.sum());
+	}
+
+	// tables and indexes are active as soon as they are created, so the first poll of a waiter succeeds
+	@Override
+	public AmazonDynamoDBWaiters waiters() {
+		return waiters;
+	}
+
+	@Override
+	public void shutdown() {
+		executor.shutdown();
+		propagator.shutdown();
+	}
+
+	@Override
+	public CreateTableResult createTable(CreateTableRequest request) {
+		pause(request);
+
+		LocalTable table = new LocalTable(request.getTableName(), request.getKeySchema(),
+				request.getAttributeDefinitions(), request.getProvisionedThroughput());
+		if (request.getGlobalSecondaryIndexes() != null)
+			for (GlobalSecondaryIndex gsi : request.getGlobalSecondaryIndexes())
+				table.indexes.put(gsi.getIndexName(), new LocalIndex(gsi.getIndexName(), gsi.getKeySchema(),
+						gsi.getProjection(), gsi.getProvisionedThroughput()));
+
+		if (tables.putIfAbsent(table.name, table) != null)
+			throw error(new ResourceInUseException(String.format("Table already exists: %s", table.name)));
+
+		return new CreateTableResult().withTableDescription(table.describe());
+	}
+
+	@Override
+	public UpdateTableResult updateTable(UpdateTableRequest request) {
+		pause(request);
+
+		LocalTable table = table(request.getTableName());
+		synchronized (table) {
+			if (request.getAttributeDefinitions() != null)
+				for (AttributeDefinition definition : request.getAttributeDefinitions())
+					if (!table.definitions.contains(definition))
+						table.definitions.add(definition);
+
+			if (request.getProvisionedThroughput() != null)
+				table.provision(request.getProvisionedThroughput());
+
+			if (request.getGlobalSecondaryIndexUpdates() != null) {
+				for (GlobalSecondaryIndexUpdate update : request.getGlobalSecondaryIndexUpdates()) {
+					if (update.getCreate() != null) {
+						CreateGlobalSecondaryIndexAction create = update.getCreate();
+						LocalIndex index = new LocalIndex(create.getIndexName(), create.getKeySchema(),
+								create.getProjection(), create.getProvisionedThroughput());
+
+						// backfill from the items already in the table
+						for (Map<String, AttributeValue> item : table.items.values())
+							index.put(table, item);
+						table.indexes.put(index.name, index);
+					} else if (update.getDelete() != null) {
+						table.indexes.remove(update.getDelete().getIndexName());
+					} else if (update.getUpdate() != null) {
+						index(table, update.getUpdate().getIndexName()).provision(
+								update.getUpdate().getProvisionedThroughput());
+					}
+				}
+			}
+		}
+
+		return new UpdateTableResult().withTableDescription(table.describe());
+	}
+
+	@Override
+	public DescribeTableResult describeTable(DescribeTableRequest request) {
+		pause(request);
+		return new DescribeTableResult().withTable(table(request.getTableName()).describe());
+	}
+
+	@Override
+	public DeleteTableResult deleteTable(DeleteTableRequest request) {
+		pause(request);
+
+		LocalTable table = tables.remove(request.getTableName());
+		if (table == null)
+			throw error(new ResourceNotFoundException(String.format("Table not found: %s", request.getTableName())));
+
+		return new DeleteTableResult().withTableDescription(table.describe().withTableStatus(TableStatus.DELETING));
+	}
+
+	@Override
+	public ListTablesResult listTables(ListTablesRequest request) {
+		pause(request);
+
+		List<String> names = new ArrayList<String>(tables.keySet());
+		Collections.sort(names);
+
+		return new ListTablesResult().withTableNames(names);
+	}
+
+	@Override
+	public PutItemResult putItem(PutItemRequest request) {
+		BatchWriteItemResult result = batchWriteItem(new BatchWriteItemRequest()
+				.addRequestItemsEntry(request.getTableName(),
+						Collections.singletonList(new WriteRequest().withPutRequest(
+								new com.amazonaws.services.dynamodbv2.model.PutRequest(request.getItem()))))
+				.withReturnConsumedCapacity(request.getReturnConsumedCapacity()));
+
+		if (!result.getUnprocessedItems().isEmpty())
+			throw error(new ProvisionedThroughputExceededException(
+					"The level of configured provisioned throughput for the table was exceeded."));
+
+		return new PutItemResult().withConsumedCapacity(
+				(result.getConsumedCapacity() != null ? result.getConsumedCapacity().get(0) : null));
+	}
+
+	/**
+	 * apply an update expression of SET and ADD clauses to one item, creating the item when it does not exist
+	 */
+	@Override
+	public UpdateItemResult updateItem(UpdateItemRequest request) {
+		return metered(request, () -> serveUpdateItem(request));
+	}
+
+	private UpdateItemResult serveUpdateItem(UpdateItemRequest request) {
+		pause(request);
+
+		LocalTable table = table(request.getTableName());
+		Key key = table.key(request.getKey());
+		Map<String, AttributeValue> old = table.items.get(key);
+		Map<String, AttributeValue> updated = update(old, request);
+
+		// charged as a put of the new image, as DynamoDB charges the larger of the two images
+		double units = Math.max(writeUnits(updated), writeUnits(old));
+		Map<LocalIndex, Double> costs = new HashMap<LocalIndex, Double>();
+		for (LocalIndex index : table.indexes.values())
+			if (index.covers(updated) || (old != null && index.covers(old)))
+				costs.put(index, writeUnits(updated) + (old != null && index.covers(old) ? 1 : 0));
+
+		if (!reserve(table, key, units, costs)) {
+			throttledWrites.increment();
+			Metrics.throttled();
+			throw error(new ProvisionedThroughputExceededException(
+					"The level of configured provisioned throughput for the table was exceeded."));
+		}
+
+		// apply the expression again to the item as it is now, so concurrent updates of a counter add up
+		AtomicReference<Map<String, AttributeValue>> previous = new AtomicReference<Map<String, AttributeValue>>();
+		Map<String, AttributeValue> stored = table.items.compute(key, (k, current) -> {
+			previous.set(current);
+			return update(current, request);
+		});
+		propagate(table, previous.get(), stored);
+
+		Map<String, Double> indexUnits = new HashMap<String, Double>();
+		for (Map.Entry<LocalIndex, Double> cost : costs.entrySet())
+			indexUnits.put(cost.getKey().name, cost.getValue());
+
+		return new UpdateItemResult().withConsumedCapacity(
+				consumed(request.getReturnConsumedCapacity(), table.name, units, indexUnits));
+	}
+
+	// a copy of the item with the SET a = :v and ADD n :d clauses of the request applied
+	private static Map<String, AttributeValue> update(Map<String, AttributeValue> item, UpdateItemRequest request) {
+		Map<String, AttributeValue> updated = new HashMap<String, AttributeValue>(
+				item != null ? item : request.getKey());
+		Map<String, AttributeValue> values = request.getExpressionAttributeValues();
+
+		Matcher clause = UPDATE_CLAUSE.matcher(request.getUpdateExpression().trim());
+		int end = 0;
+		while (clause.lookingAt()) {
+			boolean set = clause.group(1).equalsIgnoreCase("SET");
+			for (String action : clause.group(2).split(",")) {
+				Matcher parts = (set ? SET_ACTION : ADD_ACTION).matcher(action.trim());
+				if (!parts.matches() || values == null || values.get(parts.group(2)) == null)
+					throw error(new AmazonDynamoDBException("Invalid UpdateExpression: " + action.trim()));
+
+				String name = name(parts.group(1), request.getExpressionAttributeNames());
+				AttributeValue value = values.get(parts.group(2));
+				AttributeValue current = updated.get(name);
+				if (!set && current != null)
+					value = new AttributeValue().withN(
+							new BigDecimal(current.getN()).add(new BigDecimal(value.getN())).toPlainString());
+				updated.put(name, value);
+			}
+			end = clause.end();
+			clause.region(end, clause.regionEnd());
+		}
+		if (end != request.getUpdateExpression().trim().length())
+			throw error(new AmazonDynamoDBException(
+					"Unsupported UpdateExpression: " + request.getUpdateExpression()));
+
+		return updated;
+	}
+
+	@Override
+	public GetItemResult getItem(GetItemRequest request) {
+		return metered(request, () -> serveGetItem(request));
+	}
+
+	private GetItemResult serveGetItem(GetItemRequest request) {
+		pause(request);
+
+		LocalTable table = table(request.getTableName());
+		Map<String, AttributeValue> item = table.items.get(table.key(request.getKey()));
+		double units = readUnits((item != null ? WriteThrottle.sizeOf(item) : 0), request.getConsistentRead());
+		read(table.partition(table.key(request.getKey()).hash), units);
+
+		// the whole item is charged whatever the projection returns
+		return new GetItemResult()
+				.withItem(item != null
+						? project(item, request.getProjectionExpression(), request.getExpressionAttributeNames())
+						: null)
+				.withConsumedCapacity(
+				consumed(request.getReturnConsumedCapacity(), table.name, units, null));
+	}
+
+	/**
+	 * apply each write in turn, returning those the partition or a GSI partition had no capacity for as unprocessed
+	 * instead of failing the call when none succeed
+	 */
+	@Override
+	public BatchWriteItemResult batchWriteItem(BatchWriteItemRequest request) {
+		return metered(request, () -> serveBatchWriteItem(request));
+	}
+
+	private BatchWriteItemResult serveBatchWriteItem(BatchWriteItemRequest request) {
+		pause(request);
+
+		int size = 0;
+		for (List<WriteRequest> requests : request.getRequestItems().values())
+			size += requests.size();
+		if (size > 25)
+			throw error(new AmazonDynamoDBException("Too many items requested for the BatchWriteItem call"));
+
+		Map<String, List<WriteRequest>> unprocessed = new HashMap<String, List<WriteRequest>>();
+		List<ConsumedCapacity> consumed = new ArrayList<ConsumedCapacity>();
+		for (Map.Entry<String, List<WriteRequest>> entry : request.getRequestItems().entrySet()) {
+			LocalTable table = table(entry.getKey());
+			double tableUnits = 0;
+			Map<String, Double> indexUnits = new HashMap<String, Double>();
+
+			for (WriteRequest write : entry.getValue()) {
+				boolean put = write.getPutRequest() != null;
+				Map<String, AttributeValue> item = (put ? write.getPutRequest().getItem()
+						: write.getDeleteRequest().getKey());
+				Key key = table.key(item);
+				Map<String, AttributeValue> old = table.items.get(key);
+
+				// a put costs the new item, a delete the item it removes, and each GSI the item it holds
+				double units = writeUnits(put ? item : old);
+				Map<LocalIndex, Double> costs = new HashMap<LocalIndex, Double>();
+				for (LocalIndex index : table.indexes.values())
+					if ((put && index.covers(item)) || (old != null && index.covers(old)))
+						costs.put(index, writeUnits(put ? item : old) + (put && old != null && index.covers(old) ? 1 : 0));
+
+				if (!reserve(table, key, units, costs)) {
+					throttledWrites.increment();
+					unprocessed.computeIfAbsent(table.name, name -> new ArrayList<WriteRequest>()).add(write);
+					continue;
+				}
+
+				Map<String, AttributeValue> stored = (put ? new HashMap<String, AttributeValue>(item) : null);
+				if (put)
+					table.items.put(key, stored);
+				else
+					table.items.remove(key);
+				propagate(table, old, stored);
+
+				tableUnits += units;
+				for (Map.Entry<LocalIndex, Double> cost : costs.entrySet())
+					indexUnits.merge(cost.getKey().name, cost.getValue(), Double::sum);
+			}
+
+			ConsumedCapacity capacity = consumed(request.getReturnConsumedCapacity(), table.name, tableUnits,
+					indexUnits);
+			if (capacity != null)
+				consumed.add(capacity);
+		}
+
+		return new BatchWriteItemResult().withUnprocessedItems(unprocessed)
+				.withConsumedCapacity(consumed.isEmpty() ? null : consumed);
+	}
+
+	@Override
+	public BatchGetItemResult batchGetItem(BatchGetItemRequest request) {
+		return metered(request, () -> serveBatchGetItem(request));
+	}
+
+	private BatchGetItemResult serveBatchGetItem(BatchGetItemRequest request) {
+		pause(request);
+
+		int size = 0;
+		for (KeysAndAttributes keys : request.getRequestItems().values())
+			size += keys.getKeys().size();
+		if (size > 100)
+			throw error(new AmazonDynamoDBException("Too many items requested for the BatchGetItem call"));
+
+		Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<String, List<Map<String, AttributeValue>>>();
+		List<ConsumedCapacity> consumed = new ArrayList<ConsumedCapacity>();
+		for (Map.Entry<String, KeysAndAttributes> entry : request.getRequestItems().entrySet()) {
+			LocalTable table = table(entry.getKey());
+			List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+			double units = 0;
+
+			for (Map<String, AttributeValue> keyMap : entry.getValue().getKeys()) {
+				Key key = table.key(keyMap);
+				Map<String, AttributeValue> item = table.items.get(key);
+				double itemUnits = readUnits((item != null ? WriteThrottle.sizeOf(item) : 0),
+						entry.getValue().getConsistentRead());
+				read(table.partition(key.hash), itemUnits);
+				units += itemUnits;
+
+				if (item != null)
+					items.add(project(item, entry.getValue().getProjectionExpression(),
+							entry.getValue().getExpressionAttributeNames()));
+			}
+
+			responses.put(table.name, items);
+			ConsumedCapacity capacity = consumed(request.getReturnConsumedCapacity(), table.name, units, null);
+			if (capacity != null)
+				consumed.add(capacity);
+		}
+
+		return new BatchGetItemResult().withResponses(responses)
+				.withUnprocessedKeys(new HashMap<String, KeysAndAttributes>())
+				.withConsumedCapacity(consumed.isEmpty() ? null : consumed);
+	}
+
+	/**
+	 * supports a key condition expression with an equality on the partition key and an optional =, <, <=, >, >=,
+	 * BETWEEN or begins_with condition on the sort key
+	 */
+	@Override
+	public QueryResult query(QueryRequest request) {
+		return metered(request, () -> serveQuery(request));
+	}
+
+	private QueryResult serveQuery(QueryRequest request) {
+		pause(request);
+
+		LocalTable table = table(request.getTableName());
+		LocalSource source = (request.getIndexName() != null ? index(table, request.getIndexName()) : table);
+		Map<String, String> names = request.getExpressionAttributeNames();
+		Map<String, AttributeValue> values = request.getExpressionAttributeValues();
+		if (request.getKeyConditionExpression() == null)
+			throw error(new AmazonDynamoDBException("Only KeyConditionExpression queries are supported"));
+
+		AttributeValue hashValue = null;
+		SortCondition condition = null;
+		for (String clause : clauses(request.getKeyConditionExpression())) {
+			Matcher m;
+			if ((m = BETWEEN.matcher(clause)).matches())
+				condition = new SortCondition("BETWEEN", values.get(m.group(2)), values.get(m.group(3)));
+			else if ((m = BEGINS_WITH.matcher(clause)).matches())
+				condition = new SortCondition("begins_with", values.get(m.group(2)), null);
+			else if ((m = COMPARISON.matcher(clause)).matches()) {
+				if (name(m.group(1), names).equals(source.hashKey) && m.group(2).equals("="))
+					hashValue = values.get(m.group(3));
+				else
+					condition = new SortCondition(m.group(2), values.get(m.group(3)), null);
+			} else
+				throw error(new AmazonDynamoDBException(String.format("Unsupported key condition [%s]", clause)));
+		}
+		if (hashValue == null)
+			throw error(new AmazonDynamoDBException("Query condition missed key schema element: " + source.hashKey));
+
+		long hash = KeyCalculator.hash(hashValue);
+		NavigableMap<Key, Map<String, AttributeValue>> range = source.items.subMap(new Key(hash, false, hashValue),
+				true, new Key(hash, true, hashValue), true);
+		if (request.getScanIndexForward() != null && !request.getScanIndexForward())
+			range = range.descendingMap();
+		if (request.getExclusiveStartKey() != null)
+			range = range.tailMap(source.key(table, request.getExclusiveStartKey()), false);
+
+		Page page = new Page(source, table, request.getLimit(), request.getSelect(), request.getProjectionExpression(),
+				names);
+		for (Map<String, AttributeValue> item : range.values()) {
+			if (condition != null && !condition.matches(item.get(source.rangeKey)))
+				continue;
+			if (!page.add(item))
+				break;
+		}
+
+		double units = readUnits(page.bytes, request.getConsistentRead());
+		read(source.partition(hash), units);
+
+		return new QueryResult().withItems(page.items).withCount(page.counted).withScannedCount(page.counted)
+				.withLastEvaluatedKey(page.lastKey).withConsumedCapacity(consumed(request.getReturnConsumedCapacity(),
+						table.name, (request.getIndexName() != null ? 0 : units), (request.getIndexName() != null
+								? Collections.singletonMap(request.getIndexName(), units) : null)));
+	}
+
+	/**
+	 * reads the slice of the hash space that belongs to the segment, in hash order
+	 */
+	@Override
+	public ScanResult scan(ScanRequest request) {
+		return metered(request, () -> serveScan(request));
+	}
+
+	private ScanResult serveScan(ScanRequest request) {
+		pause(request);
+
+		LocalTable table = table(request.getTableName());
+		LocalSource source = (request.getIndexName() != null ? index(table, request.getIndexName()) : table);
+		int segments = (request.getTotalSegments() != null ? request.getTotalSegments() : 1);
+		int segment = (request.getSegment() != null ? request.getSegment() : 0);
+
+		long first = KeyCalculator.bound(segment, segments);
+		NavigableMap<Key, Map<String, AttributeValue>> range = (request.getExclusiveStartKey() != null
+				? source.items.tailMap(source.key(table, request.getExclusiveStartKey()), false)
+				: source.items.tailMap(new Key(first, false), true));
+
+		Page page = new Page(source, table, request.getLimit(), request.getSelect(), request.getProjectionExpression(),
+				request.getExpressionAttributeNames());
+		for (Map.Entry<Key, Map<String, AttributeValue>> entry : range.entrySet()) {
+			if (segment + 1 < segments
+					&& Long.compareUnsigned(entry.getKey().hash, KeyCalculator.bound(segment + 1, segments)) >= 0)
+				break;
+			if (!page.add(entry.getValue()))
+				break;
+		}
+
+		double units = readUnits(page.bytes, request.getConsistentRead());
+		read(source.partition(first), units);
+
+		return new ScanResult().withItems(page.items).withCount(page.counted).withScannedCount(page.counted)
+				.withLastEvaluatedKey(page.lastKey).withConsumedCapacity(consumed(request.getReturnConsumedCapacity(),
+						table.name, (request.getIndexName() != null ? 0 : units), (request.getIndexName() != null
+								? Collections.singletonMap(request.getIndexName(), units) : null)));
+	}
+
+	@Override
+	public Future<QueryResult> queryAsync(QueryRequest request, AsyncHandler<QueryRequest, QueryResult> handler) {
+		return submit(request, handler, () -> query(request));
+	}
+
+	@Override
+	public Future<BatchGetItemResult> batchGetItemAsync(BatchGetItemRequest request,
+			AsyncHandler<BatchGetItemRequest, BatchGetItemResult> handler) {
+		return submit(request, handler, () -> batchGetItem(request));
+	}
+
+	@Override
+	public Future<BatchWriteItemResult> batchWriteItemAsync(BatchWriteItemRequest request,
+			AsyncHandler<BatchWriteItemRequest, BatchWriteItemResult> handler) {
+		return submit(request, handler, () -> batchWriteItem(request));
+	}
+
+	private <REQUEST extends AmazonWebServiceRequest, RESULT> Future<RESULT> submit(REQUEST request,
+			AsyncHandler<REQUEST, RESULT> handler, Callable<RESULT> call) {
+		return executor.submit(() -> {
+			try {
+				RESULT result = call.call();
+				if (handler != null)
+					handler.onSuccess(request, result);
+				return result;
+			} catch (Exception ex) {
+				if (handler != null)
+					handler.onError(ex);
+				throw ex;
+			}
+		});
+	}
+
+	// report a data plane call to the metrics as the SDK's request handler would
+	private static <RESULT> RESULT metered(AmazonWebServiceRequest request, Supplier<RESULT> call) {
+		Metrics.begin();
+		try {
+			RESULT result = call.get();
+			Metrics.end(request, result);
+			return result;
+		} catch (RuntimeException ex) {
+			Metrics.failed();
+			throw ex;
+		}
+	}
+
+	// take capacity from the item's partition and every GSI partition it lands on, or from none of them
+	private boolean reserve(LocalTable table, Key key, double units, Map<LocalIndex, Double> costs) {
+		Bucket bucket = table.partition(key.hash).write;
+		if (!bucket.tryAcquire(units))
+			return false;
+
+		Map<Bucket, Double> taken = new HashMap<Bucket, Double>();
+		for (Map.Entry<LocalIndex, Double> cost : costs.entrySet()) {
+			Bucket indexBucket = cost.getKey().partition(key.hash).write;
+			if (!indexBucket.tryAcquire(cost.getValue())) {
+				bucket.refund(units);
+				for (Map.Entry<Bucket, Double> refund : taken.entrySet())
+					refund.getKey().refund(refund.getValue());
+				return false;
+			}
+			taken.put(indexBucket, cost.getValue());
+		}
+
+		return true;
+	}
+
+	// wait for read capacity on the partition, as the SDK would by retrying a throttled read
+	private void read(Partition partition, double units) {
+		long wait = partition.read.reserve(units);
+		if (wait > 0) {
+			throttledReads.increment();
+			Metrics.throttled();
+			LockSupport.parkNanos(wait);
+		}
+	}
+
+	// replace the old image of an item with the new one in every GSI once the propagation delay has passed
+	private void propagate(LocalTable table, Map<String, AttributeValue> old, Map<String, AttributeValue> stored) {
+		Runnable update = () -> {
+			for (LocalIndex index : table.indexes.values()) {
+				if (old != null)
+					index.remove(table, old);
+				if (stored != null)
+					index.put(table, stored);
+			}
+		};
+
+		// a single thread with a fixed delay keeps the updates of an item in order
+		if (lag > 0)
+			propagator.schedule(update, lag, TimeUnit.NANOSECONDS);
+		else
+			update.run();
+	}
+
+	// every call pays a latency drawn from a log-normal distribution with the configured median and p99
+	private void pause(AmazonWebServiceRequest request) {
+		if (median > 0)
+			LockSupport.parkNanos((long) (median
+					* Math.exp(sigma * gaussian(new SplittableRandom(31 * seed + request.hashCode())))));
+	}
+
+	// a standard normal draw by the polar method, which SplittableRandom does not provide
+	private static double gaussian(SplittableRandom random) {
+		double u, v, s;
+		do {
+			u = 2 * random.nextDouble() - 1;
+			v = 2 * random.nextDouble() - 1;
+			s = u * u + v * v;
+		} while (s >= 1 || s == 0);
+
+		return u * Math.sqrt(-2 * Math.log(s) / s);
+	}
+
+	private LocalTable table(String name) {
+		LocalTable table = tables.get(name);
+		if (table == null)
+			throw error(new ResourceNotFoundException(
+					String.format("Requested resource not found: Table: %s not found", name)));
+
+		return table;
+	}
+
+	private LocalIndex index(LocalTable table, String name) {
+		LocalIndex index = table.indexes.get(name);
+		if (index == null)
+			throw error(new ResourceNotFoundException(
+					String.format("Requested resource not found: Index: %s not found", name)));
+
+		return index;
+	}
+
+	private static ConsumedCapacity consumed(String mode, String table, double units, Map<String, Double> indexes) {
+		if (mode == null || mode.equals(ReturnConsumedCapacity.NONE.toString()))
+			return null;
+
+		double total = units;
+		if (indexes != null)
+			for (double index : indexes.values())
+				total += index;
+
+		ConsumedCapacity capacity = new ConsumedCapacity().withTableName(table).withCapacityUnits(total);
+		if (mode.equals(ReturnConsumedCapacity.INDEXES.toString())) {
+			capacity.setTable(new Capacity().withCapacityUnits(units));
+			if (indexes != null) {
+				Map<String, Capacity> gsis = new HashMap<String, Capacity>();
+				for (Map.Entry<String, Double> index : indexes.entrySet())
+					gsis.put(index.getKey(), new Capacity().withCapacityUnits(index.getValue()));
+				capacity.setGlobalSecondaryIndexes(gsis);
+			}
+		}
+
+		return capacity;
+	}
+
+	private static double writeUnits(Map<String, AttributeValue> item) {
+		return (item != null ? Math.max(1, (WriteThrottle.sizeOf(item) + 1023) / 1024) : 1);
+	}
+
+	// one unit per 4KB read, half that when eventually consistent
+	private static double readUnits(long bytes, Boolean consistent) {
+		double units = Math.max(1, (bytes + 4095) / 4096);
+		return (consistent != null && consistent ? units : units / 2);
+	}
+
+	private static List<String> clauses(String expression) {
+		// split on AND, except the one inside BETWEEN
+		List<String> clauses = new ArrayList<String>();
+		for (String part : expression.trim().split("(?i)\\s+AND\\s+")) {
+			int last = clauses.size() - 1;
+			if (last >= 0 && clauses.get(last).toUpperCase().contains(" BETWEEN ")
+					&& !clauses.get(last).toUpperCase().matches(".*BETWEEN\\s+\\S+\\s+AND\\s+.*"))
+				clauses.set(last, clauses.get(last) + " AND " + part);
+			else
+				clauses.add(part);
+		}
+
+		return clauses;
+	}
+
+	private static String name(String token, Map<String, String> names) {
+		return (token.startsWith("#") && names != null ? names.get(token) : token);
+	}
+
+	private static Map<String, AttributeValue> project(Map<String, AttributeValue> item, String projection,
+			Map<String, String> names) {
+		if (projection == null)
+			return item;
+
+		Map<String, AttributeValue> projected = new HashMap<String, AttributeValue>();
+		for (String token : projection.split(",")) {
+			String attribute = name(token.trim(), names);
+			if (item.containsKey(attribute))
+				projected.put(attribute, item.get(attribute));
+		}
+
+		return projected;
+	}
+
+	private static int compare(AttributeValue a, AttributeValue b) {
+		if (a.getS() != null)
+			return a.getS().compareTo(b.getS());
+		else if (a.getN() != null)
+			return new BigDecimal(a.getN()).compareTo(new BigDecimal(b.getN()));
+
+		return a.getB().compareTo(b.getB());
+	}
+
+	private static <T extends AmazonDynamoDBException> T error(T ex) {
+		ex.setStatusCode(400);
+		ex.setErrorCode(ex.getClass().getSimpleName());
+		ex.setServiceName("AmazonDynamoDBv2");
+
+		return ex;
+	}
+
+	private static java.util.concurrent.ThreadFactory daemon(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	// orders items by partition key hash, then by the key attribute values
+	private static class Key implements Comparable<Key> {
+		private final long hash;
+		// sorts after every key sharing the leading values instead of before
+		private final boolean upper;
+		private final AttributeValue[] values;
+
+		Key(long hash, boolean upper, AttributeValue... values) {
+			this.hash = hash;
+			this.upper = upper;
+			this.values = values;
+		}
+
+		@Override
+		public int compareTo(Key other) {
+			int c = Long.compareUnsigned(hash, other.hash);
+			for (int i = 0; c == 0 && i < Math.min(values.length, other.values.length); i++)
+				c = LocalDynamoDB.compare(values[i], other.values[i]);
+			if (c != 0 || values.length == other.values.length)
+				return (c != 0 ? c : Boolean.compare(upper, other.upper));
+
+			// a prefix sorts before the keys it leads unless it is an upper bound
+			return (values.length < other.values.length ? (upper ? 1 : -1) : (other.upper ? -1 : 1));
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && compareTo((Key) other) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(hash) * 31 + Arrays.hashCode(values);
+		}
+	}
+
+	// a token bucket that banks up to the burst window of unused capacity
+	private static class Bucket {
+		private double rate, tokens;
+		private long burst, last = System.nanoTime();
+
+		Bucket(double rate, long burst) {
+			this.rate = rate;
+			this.burst = burst;
+			this.tokens = rate;
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			tokens = Math.min(rate * burst, tokens + (now - last) * rate / TimeUnit.SECONDS.toNanos(1));
+			last = now;
+		}
+
+		synchronized boolean tryAcquire(double units) {
+			refill();
+			if (tokens < units)
+				return false;
+
+			tokens -= units;
+			return true;
+		}
+
+		synchronized void refund(double units) {
+			tokens += units;
+		}
+
+		// take the units, going into debt if need be, and return how long to wait until the debt is repaid
+		synchronized long reserve(double units) {
+			refill();
+			tokens -= units;
+
+			return (tokens >= 0 ? 0L : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate));
+		}
+	}
+
+	private static class Partition {
+		private final Bucket read, write;
+
+		Partition(double rcu, double wcu, long burst) {
+			this.read = new Bucket(rcu, burst);
+			this.write = new Bucket(wcu, burst);
+		}
+	}
+
+	// a table or index: sorted items split into partitions
+	private abstract class LocalSource {
+		String name, hashKey, rangeKey;
+		ConcurrentSkipListMap<Key, Map<String, AttributeValue>> items = new ConcurrentSkipListMap<Key, Map<String, AttributeValue>>();
+		volatile Partition[] partitions;
+		ProvisionedThroughput throughput;
+
+		LocalSource(String name, List<KeySchemaElement> schema, ProvisionedThroughput throughput) {
+			this.name = name;
+			for (KeySchemaElement element : schema) {
+				if (element.getKeyType().equals(KeyType.HASH.toString()))
+					hashKey = element.getAttributeName();
+				else
+					rangeKey = element.getAttributeName();
+			}
+			provision(throughput);
+		}
+
+		// split the throughput across as many partitions as DynamoDB would allocate for it
+		void provision(ProvisionedThroughput throughput) {
+			this.throughput = throughput;
+			double rcu = throughput.getReadCapacityUnits(), wcu = throughput.getWriteCapacityUnits();
+			int count = (fixedPartitions > 0 ? fixedPartitions
+					: (int) Math.max(1, Math.ceil(rcu / PARTITION_RCU + wcu / PARTITION_WCU)));
+
+			Partition[] split = new Partition[count];
+			for (int i = 0; i < count; i++)
+				split[i] = new Partition(rcu / count, wcu / count, burst);
+			this.partitions = split;
+		}
+
+		Partition partition(long hash) {
+			Partition[] split = partitions;
+			return split[KeyCalculator.slice(hash, split.length)];
+		}
+
+		ProvisionedThroughputDescription throughput() {
+			return new ProvisionedThroughputDescription().withReadCapacityUnits(throughput.getReadCapacityUnits())
+					.withWriteCapacityUnits(throughput.getWriteCapacityUnits()).withNumberOfDecreasesToday(0L);
+		}
+
+		abstract Key key(LocalTable table, Map<String, AttributeValue> item);
+
+		// the attributes returned as LastEvaluatedKey
+		abstract Map<String, AttributeValue> lastKey(LocalTable table, Map<String, AttributeValue> item);
+	}
+
+	private class LocalTable extends LocalSource {
+		List<AttributeDefinition> definitions;
+		Map<String, LocalIndex> indexes = new ConcurrentHashMap<String, LocalIndex>();
+		Date created = new Date();
+
+		LocalTable(String name, List<KeySchemaElement> schema, List<AttributeDefinition> definitions,
+				ProvisionedThroughput throughput) {
+			super(name, schema, throughput);
+			this.definitions = new ArrayList<AttributeDefinition>(definitions);
+		}
+
+		Key key(Map<String, AttributeValue> item) {
+			return key(this, item);
+		}
+
+		@Override
+		Key key(LocalTable table, Map<String, AttributeValue> item) {
+			AttributeValue hash = item.get(hashKey);
+			if (hash == null)
+				throw error(new AmazonDynamoDBException("One of the required keys was not given a value"));
+
+			return (rangeKey != null ? new Key(KeyCalculator.hash(hash), false, hash, item.get(rangeKey))
+					: new Key(KeyCalculator.hash(hash), false, hash));
+		}
+
+		@Override
+		Map<String, AttributeValue> lastKey(LocalTable table, Map<String, AttributeValue> item) {
+			Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+			key.put(hashKey, item.get(hashKey));
+			if (rangeKey != null)
+				key.put(rangeKey, item.get(rangeKey));
+
+			return key;
+		}
+
+		TableDescription describe() {
+			List<KeySchemaElement> schema = new ArrayList<KeySchemaElement>();
+			schema.add(new KeySchemaElement(hashKey, KeyType.HASH));
+			if (rangeKey != null)
+				schema.add(new KeySchemaElement(rangeKey, KeyType.RANGE));
+
+			long bytes = 0;
+			for (Map<String, AttributeValue> item : items.values())
+				bytes += WriteThrottle.sizeOf(item);
+
+			List<GlobalSecondaryIndexDescription> gsis = new ArrayList<GlobalSecondaryIndexDescription>();
+			for (LocalIndex index : indexes.values())
+				gsis.add(index.describe());
+
+			return new TableDescription().withTableName(name).withKeySchema(schema)
+					.withAttributeDefinitions(definitions).withTableStatus(TableStatus.ACTIVE)
+					.withCreationDateTime(created).withProvisionedThroughput(throughput())
+					.withItemCount((long) items.size()).withTableSizeBytes(bytes)
+					.withGlobalSecondaryIndexes(gsis.isEmpty() ? null : gsis);
+		}
+	}
+
+	private class LocalIndex extends LocalSource {
+		Projection projection;
+
+		LocalIndex(String name, List<KeySchemaElement> schema, Projection projection,
+				ProvisionedThroughput throughput) {
+			super(name, schema, throughput);
+			this.projection = projection;
+		}
+
+		// items without the index key attributes are not in the index
+		boolean covers(Map<String, AttributeValue> item) {
+			return item.containsKey(hashKey) && (rangeKey == null || item.containsKey(rangeKey));
+		}
+
+		void put(LocalTable table, Map<String, AttributeValue> item) {
+			if (covers(item))
+				items.put(key(table, item), item);
+		}
+
+		void remove(LocalTable table, Map<String, AttributeValue> item) {
+			if (covers(item))
+				items.remove(key(table, item));
+		}
+
+		// index entries are unique by index key plus table key
+		@Override
+		Key key(LocalTable table, Map<String, AttributeValue> item) {
+			AttributeValue hash = item.get(hashKey);
+			List<AttributeValue> values = new ArrayList<AttributeValue>();
+			values.add(hash);
+			if (rangeKey != null)
+				values.add(item.get(rangeKey));
+			values.add(item.get(table.hashKey));
+			if (table.rangeKey != null)
+				values.add(item.get(table.rangeKey));
+
+			return new Key(KeyCalculator.hash(hash), false, values.toArray(new AttributeValue[values.size()]));
+		}
+
+		@Override
+		Map<String, AttributeValue> lastKey(LocalTable table, Map<String, AttributeValue> item) {
+			Map<String, AttributeValue> key = table.lastKey(table, item);
+			key.put(hashKey, item.get(hashKey));
+			if (rangeKey != null)
+				key.put(rangeKey, item.get(rangeKey));
+
+			return key;
+		}
+
+		GlobalSecondaryIndexDescription describe() {
+			List<KeySchemaElement> schema = new ArrayList<KeySchemaElement>();
+			schema.add(new KeySchemaElement(hashKey, KeyType.HASH));
+			if (rangeKey != null)
+				schema.add(new KeySchemaElement(rangeKey, KeyType.RANGE));
+
+			return new GlobalSecondaryIndexDescription().withIndexName(name).withKeySchema(schema)
+					.withProjection(projection).withIndexStatus(IndexStatus.ACTIVE).withBackfilling(false)
+					.withProvisionedThroughput(throughput()).withItemCount((long) items.size());
+		}
+	}
+
+	// the sort key half of a key condition expression
+	private static class SortCondition {
+		private String operator;
+		private AttributeValue value, upper;
+
+		SortCondition(String operator, AttributeValue value, AttributeValue upper) {
+			this.operator = operator;
+			this.value = value;
+			this.upper = upper;
+		}
+
+		boolean matches(AttributeValue sortKey) {
+			if (sortKey == null)
+				return false;
+
+			switch (operator) {
+			case "=":
+				return compare(sortKey, value) == 0;
+			case "<":
+				return compare(sortKey, value) < 0;
+			case "<=":
+				return compare(sortKey, value) <= 0;
+			case ">":
+				return compare(sortKey, value) > 0;
+			case ">=":
+				return compare(sortKey, value) >= 0;
+			case "BETWEEN":
+				return compare(sortKey, value) >= 0 && compare(sortKey, upper) <= 0;
+			default:
+				return sortKey.getS() != null && sortKey.getS().startsWith(value.getS());
+			}
+		}
+	}
+
+	// accumulates the items of one query or scan response up to the limit or 1MB
+	private static class Page {
+		private LocalSource source;
+		private LocalTable table;
+		private Integer limit;
+		private boolean count;
+		private String projection;
+		private Map<String, String> names;
+		List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+		Map<String, AttributeValue> lastKey;
+		int counted;
+		long bytes;
+
+		Page(LocalSource source, LocalTable table, Integer limit, String select, String projection,
+				Map<String, String> names) {
+			this.source = source;
+			this.table = table;
+			this.limit = limit;
+			this.count = Select.COUNT.toString().equals(select);
+			this.projection = projection;
+			this.names = names;
+		}
+
+		// add an item, returning false once the page is full
+		boolean add(Map<String, AttributeValue> item) {
+			if ((limit != null && counted >= limit) || bytes >= PAGE_BYTES) {
+				return false;
+			}
+
+			counted++;
+			bytes += WriteThrottle.sizeOf(item);
+			if (!count)
+				items.add(project(item, projection, names));
+
+			if ((limit != null && counted >= limit) || bytes >= PAGE_BYTES)
+				lastKey = source.lastKey(table, item);
+
+			return true;
+		}
+	}
+}
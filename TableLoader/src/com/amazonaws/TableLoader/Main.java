@@ -1,21 +1,22 @@
 package com.amazonaws.TableLoader;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Scanner;
+import java.util.TreeMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
-import org.json.JSONObject;
 //import org.springframework.http.HttpMethod;
 //import org.springframework.http.MediaType;
 //import org.springframework.web.reactive.function.BodyInserters;
@@ -25,12 +26,14 @@ import org.json.JSONObject;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
 import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
 import com.amazonaws.services.dynamodbv2.document.spec.UpdateTableSpec;
 import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.CreateGlobalSecondaryIndexAction;
 import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexUpdate;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
@@ -41,65 +44,100 @@ import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 
 public class Main {
 	// misc globals
+	public static AmazonDynamoDB client;
 	public static DynamoDB db;
-	public static volatile AtomicInteger numThreads = new AtomicInteger(0);
-	public static volatile Object sync = new Object();
-	public static volatile Map<Integer, List<Item>> results = new HashMap<Integer, List<Item>>();
-	public static Map<String, List<Item>> sItems = new HashMap<String, List<Item>>();
 	public static ThreadPoolExecutor tpe = (ThreadPoolExecutor) Executors.newFixedThreadPool(60);
-	public static int count = 0;
-
-	private static long elapsed, WCU = 0L, RCU = 0L;
+	// producers block once twice as many tasks as threads are queued or running
+	public static TaskGroup workers = new TaskGroup(new BoundedExecutor(tpe, 2 * tpe.getMaximumPoolSize()));
+	private static TaskGroup poolWorkers = workers, virtualWorkers;
+	private static VirtualExecutor virtual;
+	public static AsyncEngine async;
+	private static LocalDynamoDB local;
+	private static Journal journal;
+	private static Results orders = new Results();
+	private static int count = 0, samples = 100;
+
+	private static final int ASYNC_IN_FLIGHT = 256;
+	// async reads hold no worker, so the window of the workers does not bound them
+	private static Semaphore asyncWindow = new Semaphore(ASYNC_IN_FLIGHT);
+	private static final int LOAD_CHUNK = 1000;
+	// tables holding more items than this are dropped and recreated rather than emptied with batch deletes
+	private static final int RESET_ITEMS = 10000;
+	// items written across the keyspace when searching a real table for well distributed keys
+	private static final int DONOR_ITEMS = 10000;
+	private static long elapsed, WCU = 0L, RCU = 0L, rate = 0L;
+	private static int maxConcurrency = 1000, metricsPort = 0;
 	private static Map<String, Integer> counts = new HashMap<String, Integer>();
+	private static Map<String, String> demoSettings = new HashMap<String, String>();
+	private static Workload workload;
 	private static TableWriteItems twi;
-	private static String table = "", data = "", demo = "index-lag", leadingKey = "Item";
-	private static List<String> keys = new ArrayList<String>();
-	private static boolean createTable = false, optimizeKeys = false, shootout = false, loadItems = true;
-	private static Random random = new Random();
-	private static Calendar cal = Calendar.getInstance();
-	private static SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+	private static String table = "", data = "", demo = "index-lag", leadingKey = "Item", journalPath,
+			reset = "auto", snapshotDir;
+	private static List<String> keys = new ArrayList<String>(), engines = Arrays.asList("pool"),
+			files = new ArrayList<String>();
+	private static FileImport.Format format;
+	private static ClientConfiguration config;
+	private static EntityFactory<?> entities = ItemFactory.ITEMS;
+	private static boolean createTable = false, optimizeKeys = false, verifyKeys = false, shootout = false,
+			loadItems = true, seedGiven = false, resetGiven = false, resuming = false;
+	private static long seed = System.nanoTime();
 
 	// main function
 	public static void main(String[] args) {
 		Scanner scanner = new Scanner(System.in);
 		disableWarning();
 
-		// initialize DynamoDB connection
-		init();
-
 		// set globals
 		parseArgs(args);
 		shootout = demo.equals("shootout");
 
+		// initialize DynamoDB connection
+		init();
+
+		// publish request metrics over JMX, on the console and, if -h was passed, over HTTP
+		try {
+			Metrics.start(metricsPort);
+		} catch (IOException ex) {
+			usage(String.format("ERROR: Unable to serve metrics on port %d: %s", metricsPort, ex.getMessage()));
+		}
+
+		// start the async client if it is one of the engines under test
+		if (engines.contains("async"))
+			async = (local != null ? new AsyncEngine(local) : new AsyncEngine(config, ASYNC_IN_FLIGHT));
+
+		// run workers on virtual threads, capped by a semaphore rather than a pool size
+		if (engines.contains("virtual")) {
+			try {
+				virtual = new VirtualExecutor(maxConcurrency);
+				virtualWorkers = new TaskGroup(new BoundedExecutor(virtual, 2 * maxConcurrency));
+			} catch (UnsupportedOperationException ex) {
+				usage(String.format("ERROR: %s", ex.getMessage()));
+			}
+		}
+
+		// the first engine listed runs everything outside the shootout comparison
+		useEngine(engines.get(0));
+
+		// without a seed, replay the latest snapshot of the same dataset rather than generate a new one
+		if (snapshotDir != null && !seedGiven
+				&& (shootout || demo.equals("online-shop") || demo.equals("workload"))) {
+			DatasetSnapshot latest = DatasetSnapshot.latest(snapshotDir, shopFingerprint());
+			if (latest != null)
+				seed = latest.getSeed();
+		}
+
+		// pick up where an interrupted load stopped if its journal has progress
+		if (journalPath != null && loadItems)
+			openJournal();
+
 		// create the table and index if -c was passed
 		if (createTable) {
-			createTable(table);
-
-			if (shootout) {
-				createTable("Customers");
-				createTable("Orders");
-				createTable("OrderItems");
-				createTable("Products");
-				createTable("Invoices");
-				createTable("Warehouses");
-				createTable("Shipments");
-				createTable("ShipmentItems");
-			}
+			for (String name : tables())
+				createTable(name);
 		} else {
-			if (loadItems) {
-				clearTable(table);
-
-				if (shootout) {
-					clearTable("Customers");
-					clearTable("Orders");
-					clearTable("OrderItems");
-					clearTable("Invoices");
-					clearTable("Shipments");
-					clearTable("ShipmentItems");
-					clearTable("Warehouses");
-					clearTable("Products");
-				}
-			}
+			// an import adds to the tables it writes unless -z asks for them to be emptied first
+			if (loadItems && !resuming && (resetGiven || !demo.equals("import")))
+				resetTables(tables());
 		}
 
 		// set the list of keys to use if -o was passed
@@ -109,488 +147,494 @@ public class Main {
 		// run the specified demo
 		switch (demo) {
 		case "index-lag":
-			// load the table
-			loadItems("data", counts.get("items"), null);
+			// load the table, stamping sampled items as their batch writes complete
+			LagProbe probe = new LagProbe(table, "GSI1");
+			loadItems(entities, "data", counts.get("items"), probe);
 
-			// scan the GSI until count matches numItems
-			scanTable(tpe.getMaximumPoolSize(), true);
+			// poll the GSI for each sampled item until all of them have replicated
+			measureLag(probe);
 			break;
 
 		case "shootout":
 		case "online-shop":
-			if (loadItems) {
-				Map<String, String> params = new HashMap<String, String>();
-				params.put("address",
-						"{\"Country\":{\"S\":\"Sweden\"},\"County\":{\"S\":\"Vastra Gotaland\"},\"City\":{\"S\":\"Goteborg\"},\"Street\":{\"S\":\"MainStreet\"},\"Number\":{\"S\":\"20\"},\"ZipCode\":{\"S\":\"41111\"}}");
-				loadItems("warehouse", 1, params);
-				params.put("address",
-						"{\"Country\":{\"S\":\"Sweden\"},\"County\":{\"S\":\"Vastra Gotaland\"},\"City\":{\"S\":\"Boras\"},\"Street\":{\"S\":\"RiverStreet\"},\"Number\":{\"S\":\"20\"},\"ZipCode\":{\"S\":\"11111\"}}");
-				loadItems("warehouse", 1, params);
-
-				params.clear();
-				loadItems("product", counts.get("products"), params);
-				params.clear();
-				loadItems("customer", counts.get("customers"), params);
-				drainQueue();
-			}
+			if (loadItems)
+				loadShop(entities);
 
-			if (demo.equals("shootout")) {
-				// Scan Orders table to get all orderId's
-				System.out.print("Retrieving ID's for all Orders...");
-				scanTable("Orders");
-				System.out.println(String.format("\nRetrieved %d Order ID's.", count));
-
-				// Prewarm thread pool
-				System.out.println("Prewarming thread pool...");
-				tpe.prestartAllCoreThreads();
-				getAllOrdersById(false);
-
-				// Start the test
-				for (int i = 0; i < 100; i++) {
-					System.out.println(String.format("\nIteration %d:", i));
-					
-					// Run Multi-table and record execution time
-					count = 0;
-					System.out.print("Running getOrderById test for Multiple Table data model...");
-					elapsed = System.currentTimeMillis();
-					getAllOrdersById(false);
-
-					long multiTable = System.currentTimeMillis() - elapsed;
-					System.out.println(String.format("\nRetrieved %d order objects with average latency of %dms,",
-							count, multiTable / count));
-
-					// Reset, run Single table and record time
-					sItems = new HashMap<String, List<Item>>();
-					count = 0;
-					System.out.print("\nRunning getOrderById test for Single Table data model...");
-					elapsed = System.currentTimeMillis();
-					getAllOrdersById(true);
-
-					long singleTable = System.currentTimeMillis() - elapsed;
-					System.out.println(String.format("\nRetrieved %d order objects with average latency of %dms,",
-							count, singleTable / count));
-					
-					// Report Single table efficiency as a percentage of Multi-table response time
-					System.out.println(String.format("Single table efficiency: %d%s", (singleTable * 100) / (multiTable), "%"));
-				}
-			}
+			if (demo.equals("shootout"))
+				shootout();
+			break;
+
+		case "workload":
+			if (loadItems)
+				loadShop(entities);
+
+			runWorkload();
+			break;
+
+		case "import":
+			if (loadItems)
+				importFiles();
 			break;
 		}
 
+		// report batch write latency and any retries per table
+		for (Map.Entry<String, LatencyHistogram> entry : LatencyHistogram.named().entrySet())
+			System.out.println(String.format("%s latency %s", entry.getKey(), entry.getValue().summary()));
+
+		for (String line : RetryScheduler.report())
+			System.out.println(line);
+
+		if (local != null)
+			System.out.println(local.report());
+
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException ex) {
+				System.err.println(ex.getMessage());
+			}
+		}
+
 		// shutdown the thread pool and exit
 		System.out.println("Shutting down....");
 		scanner.close();
+		Metrics.stop();
 		tpe.shutdown();
+		if (async != null)
+			async.shutdown();
+		if (virtual != null)
+			virtual.shutdown();
 		System.out.println("Done.\n");
 	}
 
-	private static void getAllOrdersById(boolean singleTable) {
-		for (List<Item> items : results.values()) {
+	private static void runWorkload() {
+		System.out.print("Discovering keys for the workload...");
+		elapsed = System.currentTimeMillis();
+		try {
+			workload.discover(pipelineSegments());
+		} catch (IllegalStateException ex) {
+			System.err.println("\nERROR: " + ex.getMessage());
+			System.exit(1);
+		}
+		System.out.println(
+				String.format("\nFound %s in %dms.", workload.keys(), System.currentTimeMillis() - elapsed));
+
+		System.out.print(String.format("Running workload, %s...", workload.describe()));
+		workload.run(workers, ".");
+		waitForWorkers("");
+
+		System.out.println("\nWorkload results over the measured period:");
+		for (String line : workload.report())
+			System.out.println(line);
+	}
+
+	private static void shootout() {
+		// Scan Orders table to get all orderId's
+		System.out.print("Retrieving ID's for all Orders...");
+		scanTable("Orders");
+		System.out.println(String.format("\nRetrieved %d Order ID's.", orders.getItems()));
+
+		// virtual threads are always compared against the platform thread pool
+		List<String> compared = new ArrayList<String>(engines);
+		if (compared.contains("virtual") && !compared.contains("pool"))
+			compared.add("pool");
+
+		// Prewarm thread pool and connections of every engine
+		System.out.println("Prewarming engines...");
+		tpe.prestartAllCoreThreads();
+		for (String engine : compared)
+			getAllOrdersById(engine, false, new LatencyHistogram(), new TreeMap<String, LatencyHistogram>(),
+					new ReadCost(), new Results());
+
+		// Latency and read cost across all iterations per engine, data model and table
+		Map<String, LatencyHistogram> totals = new LinkedHashMap<String, LatencyHistogram>();
+		Map<String, ReadCost> costs = new LinkedHashMap<String, ReadCost>();
+
+		// Start the test
+		for (int i = 0; i < 100; i++) {
+			System.out.println(String.format("\nIteration %d:", i));
+
+			for (String engine : compared) {
+				LatencyHistogram multi = new LatencyHistogram(), single = new LatencyHistogram();
+				ReadCost multiCost = new ReadCost(), singleCost = new ReadCost();
+				Map<String, LatencyHistogram> tables = new TreeMap<String, LatencyHistogram>();
+
+				// Run Multi-table and record execution time
+				Results fetched = new Results();
+				System.out.print(
+						String.format("Running getOrderById test for Multiple Table data model on %s engine...", engine));
+				elapsed = System.currentTimeMillis();
+				long multiTable = getAllOrdersById(engine, false, multi, tables, multiCost, fetched) - elapsed;
+				System.out.println(String.format("\nRetrieved %d order objects in %dms, latency %s, %s",
+						fetched.getOrders().size(), multiTable, multi.summary(), multiCost.summary()));
+
+				// Reset, run Single table and record time
+				fetched = new Results();
+				System.out.print(
+						String.format("\nRunning getOrderById test for Single Table data model on %s engine...", engine));
+				elapsed = System.currentTimeMillis();
+				long singleTable = getAllOrdersById(engine, true, single, tables, singleCost, fetched) - elapsed;
+				System.out.println(String.format("\nRetrieved %d order objects in %dms, latency %s, %s",
+						fetched.getOrders().size(), singleTable, single.summary(), singleCost.summary()));
+
+				// Per table operation latency for this iteration
+				for (String name : tables.keySet()) {
+					System.out.println(String.format("  %s %s", name, tables.get(name).summary()));
+					totals.computeIfAbsent(String.format("[%s] %s", engine, name),
+							key -> new LatencyHistogram()).add(tables.get(name));
+				}
+
+				// Report Single table efficiency as a percentage of Multi-table response time
+				System.out.println(
+						String.format("Single table efficiency: %d%s\n", (singleTable * 100) / (multiTable), "%"));
+				totals.computeIfAbsent(String.format("[%s] Multiple Table getOrderById", engine),
+						key -> new LatencyHistogram()).add(multi);
+				totals.computeIfAbsent(String.format("[%s] Single Table getOrderById", engine),
+						key -> new LatencyHistogram()).add(single);
+				costs.computeIfAbsent(String.format("[%s] Multiple Table getOrderById", engine),
+						key -> new ReadCost()).add(multiCost);
+				costs.computeIfAbsent(String.format("[%s] Single Table getOrderById", engine),
+						key -> new ReadCost()).add(singleCost);
+			}
+		}
+
+		// Report latency and read cost aggregated over all iterations
+		System.out.println("\nAll iterations:");
+		for (Map.Entry<String, LatencyHistogram> entry : totals.entrySet())
+			System.out.println(String.format("%s latency %s", entry.getKey(), entry.getValue().summary()));
+		for (Map.Entry<String, ReadCost> entry : costs.entrySet())
+			System.out.println(String.format("%s %s", entry.getKey(), entry.getValue().summary()));
+	}
+
+	private static long getAllOrdersById(String engine, boolean singleTable, LatencyHistogram latency,
+			Map<String, LatencyHistogram> tables, ReadCost cost, Results fetched) {
+		useEngine(engine);
+		ReadPlanner planner = new ReadPlanner(latency, tables, cost, fetched);
+
+		// at a fixed rate each order is due at a set offset from the start, whether or not earlier ones finished
+		long interval = (rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0L), next = System.nanoTime();
+
+		for (List<Item> items : orders.getSegments()) {
 			for (Item item : items) {
+				long intended = 0L;
+				if (interval > 0) {
+					intended = next;
+					next += interval;
+
+					long wait;
+					while ((wait = intended - System.nanoTime()) > 0)
+						LockSupport.parkNanos(wait);
+				}
+
 				if (singleTable) {
 					// Get all items from same table
-					numThreads.incrementAndGet();
-					tpe.execute(new RunQuery(table, item.getString("PK")));
+					RunQuery.OrderFetch fetch = new RunQuery.OrderFetch(1, intended, latency, cost, fetched);
+					execute(engine, new RunQuery(table, item.getString("PK"), fetch, tables
+							.computeIfAbsent(String.format("Query [%s]", table), key -> new LatencyHistogram())));
 				} else {
-					// Get items from entity specific tables
-					numThreads.incrementAndGet();
-					tpe.execute(new RunQuery("Orders", item.getString("PK")));
-					numThreads.incrementAndGet();
-					tpe.execute(new RunQuery("OrderItems", item.getString("PK")));
-					numThreads.incrementAndGet();
-					tpe.execute(new RunQuery("Invoices", item.getString("PK")));
-					numThreads.incrementAndGet();
-					tpe.execute(new RunQuery("Shipments", item.getString("PK")));
-					numThreads.incrementAndGet();
-					tpe.execute(new RunQuery("ShipmentItems", item.getString("PK")));
+					// Get items from entity specific tables with the cheapest read for each
+					for (Read read : planner.add(item, intended))
+						execute(engine, read);
 				}
 			}
-			count += items.size();
 		}
-		
+
 		// Wait until workers are done
-		waitForWorkers("");
+		return waitForWorkers("");
+	}
+
+	// point the workers at the virtual thread executor or the platform thread pool
+	private static void useEngine(String engine) {
+		workers = (engine.equals("virtual") ? virtualWorkers : poolWorkers);
+	}
+
+	// run a read on the current workers or issue it through the async client
+	private static void execute(String engine, Read read) {
+		if (engine.equals("async")) {
+			asyncWindow.acquireUninterruptibly();
+			try {
+				workers.track(read.runAsync(async).whenComplete((items, t) -> asyncWindow.release()));
+			} catch (RuntimeException ex) {
+				asyncWindow.release();
+				throw ex;
+			}
+		} else
+			workers.submit(read);
 	}
 
 	private static void scanTable(String name) {
-		for (int i = 0; i < tpe.getMaximumPoolSize(); i++) {
-			tpe.execute(new RunScan(i, tpe.getMaximumPoolSize(), name, false));
-		}
+		// every page is published separately, so number them instead of their segments
+		int[] pages = new int[1];
+		ScanPipeline.adaptive(name, false, RunScan.Mode.KEYS, pipelineSegments())
+				.run((segment, items) -> orders.addSegment(pages[0]++, items));
 
 		waitForWorkers(".");
 	}
 
+	// every table the demo writes
+	private static List<String> tables() {
+		List<String> names = new ArrayList<String>();
+		names.add(table);
+		if (shootout)
+			names.addAll(Arrays.asList("Customers", "Orders", "OrderItems", "Products", "Invoices", "Warehouses",
+					"Shipments", "ShipmentItems"));
+
+		// imported files name their table after an equals sign
+		for (String file : files) {
+			String[] target = file.split("=", 2);
+			if (target.length > 1 && !names.contains(target[1]))
+				names.add(target[1]);
+		}
+
+		return names;
+	}
+
+	// empty the tables from a previous run, recreating those with too many items to delete one by one
+	private static void resetTables(List<String> names) {
+		List<TableSnapshot> recreate = new ArrayList<TableSnapshot>();
+		for (String name : names) {
+			TableSnapshot snapshot = TableSnapshot.describe(name);
+			if (reset.equals("recreate") || (reset.equals("auto") && snapshot.exceeds(RESET_ITEMS)))
+				recreate.add(snapshot);
+			else
+				clearTable(snapshot);
+		}
+
+		if (recreate.isEmpty())
+			return;
+
+		try {
+			System.out.print(String.format("Recreating %d tables...", recreate.size()));
+			elapsed = System.currentTimeMillis();
+			TableSnapshot.recreate(recreate);
+			System.out.println(String.format("\nRecreated tables in %dms.", System.currentTimeMillis() - elapsed));
+		} catch (InterruptedException ex) {
+			System.err.println(ex.getMessage());
+			System.exit(1);
+		}
+	}
+
 	// blow away all the items from a previous run
-	private static void clearTable(String name) {
+	private static void clearTable(TableSnapshot snapshot) {
+		String name = snapshot.getName();
 		System.out.print(String.format("Clearing items from table [%s]...", name));
 		elapsed = System.currentTimeMillis();
 
-		scanTable(name);
-
-		// delete all the items returned from scan
+		// delete items page by page as the scan streams them in, by whatever keys the table has
+		List<String> keyNames = snapshot.getKeyNames();
 		twi = new TableWriteItems(name);
-		count = 0;
-		for (Integer key : results.keySet()) {
-			List<Item> resultItems = results.get(key);
-			for (Item item : resultItems)
-				removeItem(item);
+		ScanPipeline scan = ScanPipeline.adaptive(name, false, RunScan.Mode.KEYS, pipelineSegments());
+		count = (int) scan.run((segment, items) -> {
+			for (Item item : items)
+				removeItem(item, keyNames);
+		});
 
-			count += resultItems.size();
-		}
+		removeItem(null, keyNames);
+		long done = waitForWorkers(".");
 
-		removeItem(null);
-		waitForWorkers(".");
+		System.out.println(String.format("\nDeleted %d items in %dms, scanned in %d segments with %s.", count,
+				done - elapsed, scan.getSegments(), scan.getCost().summary()));
+	}
 
-		System.out.println(String.format("\nDeleted %d items in %dms.", count, System.currentTimeMillis() - elapsed));
-		results.clear();
+	// leave half the pool free so downstream work runs while the scan is in flight
+	private static int pipelineSegments() {
+		return Math.max(1, tpe.getMaximumPoolSize() / 2);
 	}
 
-	private static void removeItem(Item item) {
+	private static void removeItem(Item item, List<String> keyNames) {
 		if (item != null) {
-			twi.addHashAndRangePrimaryKeysToDelete("PK", "SK", item.get("PK"), item.get("SK"));
+			if (keyNames.size() > 1)
+				twi.addHashAndRangePrimaryKeysToDelete(keyNames.get(0), keyNames.get(1), item.get(keyNames.get(0)),
+						item.get(keyNames.get(1)));
+			else
+				twi.addHashOnlyPrimaryKeysToDelete(keyNames.get(0), item.get(keyNames.get(0)));
 
 			// check if we need to send a batch write
 			if (twi.getPrimaryKeysToDelete().size() == 25) {
-				tpe.execute(new BatchLoad(twi));
+				workers.submit(new BatchLoad(twi));
 				twi = new TableWriteItems(twi.getTableName());
 			}
 		} else if (twi.getPrimaryKeysToDelete() != null) {
-			tpe.execute(new BatchLoad(twi));
+			workers.submit(new BatchLoad(twi));
 			twi = new TableWriteItems(twi.getTableName());
 		}
 	}
 
-	private static int loadItems(String type, int qty, Map<String, String> params) {
-		int ret = 0, count = 0;
+	private static <T> void loadItems(EntityFactory<T> factory, String type, int qty, LagProbe probe) {
 		elapsed = System.currentTimeMillis();
-
-		if (demo.equals("index-lag"))
-			System.out.print(String.format("Loading %s items...", type));
-
-		// load the items
-		if (twi == null)
-			twi = new TableWriteItems(table);
-		for (count = 0; count < qty; count++) {
-			String pk = String.format("%s#%d", leadingKey, count), sk;
-			Item item;
-
-			switch (type) {
-			case "donor":
-				saveItem(new Item().withString("PK", pk).withString("SK", "A"));
-				break;
-
-			case "data":
-				pk = String.format("Shard_%d", count % counts.get("partitions"));
-				// if list of optimized keys is empty then just spread items out randomly on GSI
-				String gsipk = (keys.size() == 0 ? String.format("Shard_%d", count % counts.get("partitions"))
-						: keys.get(count % counts.get("partitions")));
-				saveItem(new Item().withString("PK", pk).withString("SK", "A").withString("GSI1PK", gsipk)
-						.withString("GSI1SK", pk).withString("data", data));
-				break;
-
-			case "customer":
-				pk = String.format("C#%d", counts.put("customers", counts.get("customers") + 1));
-				params.put("customerId", pk);
-
-				queueItem(new Item().withString("PK", pk).withString("SK", pk).withString("type", "customer")
-						.withString("email", String.format("%s@somewhere.com", getString(10))));
-
-				loadItems("order", random.nextInt((counts.get("orders") != null ? counts.get("orders") : 5)), params);
-				break;
-
-			case "order":
-				pk = String.format("O#%d", counts.put("items", counts.get("items") + 1));
-				params.put("orderId", pk);
-
-				params.put("amount",
-						Integer.toString(loadItems("orderItem",
-								random.nextInt((counts.get("orderitems") != null ? counts.get("orderitems") : 3)) + 1,
-								params)));
-
-				cal.add(Calendar.DAY_OF_YEAR, random.nextInt(30) * -1);
-				queueItem(new Item().withString("PK", pk).withString("SK", params.get("customerId"))
-						.withString("type", "order").withString("date", sdf.format(cal.getTime()))
-						.withNumber("amount", Integer.valueOf(params.get("amount"))));
-
-				if (random.nextBoolean()) {
-					loadItems("invoice", 1, params);
-					loadItems("shipment", 1, params);
-				}
-
-				cal = Calendar.getInstance();
-				results.put(1, null);
-				break;
-
-			case "invoice":
-				pk = params.get("orderId");
-				sk = String.format("I#%d", counts.put("items", counts.get("items") + 1));
-				cal.add(Calendar.DAY_OF_YEAR, 1);
-				item = new Item().withString("PK", pk).withString("SK", sk).withString("type", "invoice")
-						.withString("GSI1PK", sk).withString("GSI1SK", sk)
-						.withString("GSI2PK", params.get("customerId")).withString("GSI2SK", sdf.format(cal.getTime()))
-						.withNumber("amount", Integer.valueOf(params.get("amount")))
-						.withString("date", sdf.format(cal.getTime()));
-
-//				if (random.nextBoolean()) {
-//					JSONObject payment = new JSONObject(String.format(
-//							"{\"Payments\":[{\"Type\": \"MasterCard\",\"Amount\":%s,\"Data\":\"Payment data here...\"}]}",
-//							params.get("amount")));
-//
-//					item.withMap("detail", payment.toMap());
-//				}
-
-				queueItem(item);
-				break;
-
-			case "orderItem":
-				Item pItem = results.get(0).get(random.nextInt(results.get(0).size()));
-				pk = params.get("orderId");
-				sk = String.format("%s#%d", pItem.getString("PK"), count);
-
-				try {
-					item = new Item().withString("PK", pk).withString("SK", sk)
-							.withString("GSI1PK", pItem.getString("PK")).withString("type", "orderItem")
-							.withString("GSI1SK", sdf.format(cal.getTime()))
-							.withString("GSI2PK", params.get("customerId"))
-							.withString("GSI2SK", sdf.format(cal.getTime())).withNumber("qty", random.nextInt(5))
-							.withNumber("price", pItem.getNumber("price"));
-
-					if (results.get(1) == null)
-						results.put(1, new ArrayList<Item>());
-
-					results.get(1).add(item);
-					queueItem(item);
-
-					ret += item.getNumber("qty").multiply(item.getNumber("price")).intValue();
-				} catch (Exception ex) {
-					System.out.println(String.format("pItem: ", pItem.toJSON()));
+		System.out.print(String.format("Loading %s items...", type));
+
+		// load the items a numbered chunk at a time, skipping chunks a resumed load already wrote
+		LoadPipeline<T> pipeline = new LoadPipeline<T>(factory, workers, table, false, 2 * tpe.getMaximumPoolSize(),
+				journal);
+		int every = Math.max(1, qty / samples);
+		for (int first = 0; first < qty; first += LOAD_CHUNK) {
+			if (pipeline.skip(first / LOAD_CHUNK))
+				continue;
+
+			List<T> chunk = new ArrayList<T>(LOAD_CHUNK);
+			for (int count = first; count < Math.min(qty, first + LOAD_CHUNK); count++) {
+				switch (type) {
+				case "data":
+					String pk = "Data#" + count;
+					// if list of optimized keys is empty then just spread items out randomly on GSI
+					String gsipk = (keys.size() == 0 ? "Shard_" + (count % counts.get("partitions"))
+							: keys.get(count % counts.get("partitions")));
+					chunk.add(factory.data(pk, gsipk, data));
+
+					if (probe != null && count % every == 0)
+						probe.sample(pk, gsipk);
+					break;
 				}
-				break;
-
-			case "shipment":
-				pk = params.get("orderId");
-				sk = String.format("S#%d", counts.put("items", counts.get("items") + 1));
-
-				params.put("shipmentId", sk);
-				JSONObject shipTo = new JSONObject(
-						"{\"Country\": \"Sweden\",\"County\":  \"Vastra Gotaland\",\"City\":  \"Goteborg\",\"Street\":  \"Slanbarsvagen\",\"Number\":  \"34\",\"ZipCode\": \"41787\"}");
-
-				item = new Item().withString("PK", pk).withString("SK", sk).withString("type", "shipment")
-						.withString("GSI1PK", sk).withString("GSI1SK", sk)
-						.withString("GSI2PK", keys.get(random.nextInt(keys.size())))
-						.withString("GSI2SK", sdf.format(cal.getTime())) // .withMap("address", shipTo.toMap())
-						.withString("method", (random.nextBoolean() ? "Express" : "Standard"));
-
-				queueItem(item);
-
-				loadItems("shipItem", results.get(1).size(), params);
-				break;
-
-			case "shipItem":
-				Item orderItem = results.get(1).get(count);
-				pk = params.get("orderId");
-				sk = String.format("SI#%d", counts.put("items", counts.get("items") + 1));
-				item = new Item().withString("PK", pk).withString("SK", sk).withString("type", "shipItem")
-						.withString("GSI1PK", params.get("shipmentId"))
-						.withString("GSI1SK", orderItem.getString("GSI1PK"))
-						.withNumber("qty", orderItem.getNumber("qty"));
+			}
 
-				queueItem(item);
-				break;
+			pipeline.accept(first / LOAD_CHUNK, chunk);
+		}
+		long done = waitForWorkers(".");
 
-			case "warehouse":
-				pk = String.format("W#%d", counts.put("items", counts.get("items") + 1));
-				keys.add(pk);
-				JSONObject shipFrom = new JSONObject(params.get("address"));
+		// log elapsed time and wait on console input
+		System.out.println(String.format("\nLoaded %d items in %dms.", pipeline.getItems(), done - elapsed));
+	}
 
-				queueItem(new Item().withString("PK", pk).withString("SK", pk).withString("type", "warehouse")
-						.withMap("address", shipFrom.toMap()));
-				break;
+	// generate the online-shop dataset and stream it into the tables as it is generated
+	private static <T> void loadShop(EntityFactory<T> factory) {
+		DatasetSnapshot snapshot = (snapshotDir != null ? new DatasetSnapshot(snapshotDir, shopFingerprint(), seed)
+				: null);
+		elapsed = System.currentTimeMillis();
 
-			case "product":
-				pk = String.format("P#%d", counts.put("items", counts.get("items") + 1));
-				sk = keys.get(random.nextInt(keys.size()));
-				JSONObject product = new JSONObject(String.format(
-						"{\"Name\":{\"S\":\"Product%d\"},\"Description\":{\"S\":\"An amazing product.\"}}",
-						counts.get("items")));
+		// generators block on the window, so leave pool threads free for the batch writes they wait on
+		LoadPipeline<T> pipeline = new LoadPipeline<T>(factory, workers, table, shootout,
+				2 * tpe.getMaximumPoolSize(), journal);
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), pipelineSegments());
+		DatasetSnapshot.Recorder<T> recorder = null;
+		long done;
+		try {
+			if (snapshot != null && snapshot.exists()) {
+				System.out.print(String.format("Loading items from snapshot [%s]...", snapshot.getPath()));
+				snapshot.replay(factory, workers, threads, pipeline);
+				done = waitForWorkers(".");
+			} else {
+				System.out.print(String.format("Loading items generated with seed %d...", seed));
+				ShopGenerator<T> generator = new ShopGenerator<T>(factory, seed, counts.get("customers"),
+						counts.get("orders"), counts.get("orderItems"), counts.get("products"));
 
-				item = new Item().withString("PK", pk).withString("SK", sk).withString("type", "warehouseItem")
-						.withString("GSI2PK", sk).withString("GSI2PK", pk).withNumber("qty", random.nextInt(100) + 100)
-						.withMap("detail", product.toMap()).withNumber("price", random.nextInt(50) + 10);
+				// a resumed load skips chunks, so it cannot record a whole snapshot
+				ShopGenerator.Sink<T> sink = pipeline;
+				if (snapshot != null && !resuming)
+					sink = recorder = snapshot.record(factory, pipeline, generator.chunks() + 1);
 
-				if (results.get(Integer.valueOf(0)) == null)
-					results.put(0, new ArrayList<Item>());
-				results.get(0).add(item);
+				sink.accept(-1, generator.catalog());
+				generator.generate(workers, threads, sink);
+				done = waitForWorkers(".");
 
-				queueItem(item);
-				break;
+				if (recorder != null && recorder.commit())
+					System.out.print(String.format("\nSaved snapshot [%s].", snapshot.getPath()));
 			}
+		} catch (IOException ex) {
+			System.err.println("ERROR: " + ex.getMessage());
+			System.exit(1);
+			return;
 		}
 
-		if (demo.equals("index-lag")) {
-			// run the last batchWrite
-			saveItem(null);
-			waitForWorkers(".");
-
-			// log elapsed time and wait on console input
-			if (!demo.equals("online-shop"))
-				System.out.println(
-						String.format("\nLoaded %d items in %dms.", qty, System.currentTimeMillis() - elapsed));
-		}
-		return ret;
+		System.out.println(String.format("\nLoaded %d items into %d table%s in %dms.", pipeline.getItems(),
+				pipeline.getTables(), (pipeline.getTables() > 1 ? "s" : ""), done - elapsed));
 	}
 
-	private static void drainQueue() {
+	private static void importFiles() {
+		System.out.print(String.format("Importing %d file%s...", files.size(), (files.size() > 1 ? "s" : "")));
 		elapsed = System.currentTimeMillis();
-		System.out.print("Loading items...");
 
-		twi = new TableWriteItems("data");
-		for (Item item : results.get(2)) {
-			saveItem(item);
+		// the items are parsed straight into attribute maps, whatever the -a write path
+		AttributeFactory factory = new AttributeFactory();
+		Map<String, LoadPipeline<Map<String, AttributeValue>>> pipelines =
+				new HashMap<String, LoadPipeline<Map<String, AttributeValue>>>();
+		for (String name : tables())
+			pipelines.put(name, new LoadPipeline<Map<String, AttributeValue>>(factory, workers, name, false,
+					2 * tpe.getMaximumPoolSize(), null));
 
-			if (shootout) {
-				String type = item.getString("type");
-				if (!sItems.containsKey(type))
-					sItems.put(type, new ArrayList<Item>());
-				sItems.get(type).add(item);
+		FileImport job = new FileImport(pipelines);
+		try {
+			for (String file : files) {
+				String[] target = file.split("=", 2);
+				job.add(target[0], (target.length > 1 ? target[1] : table),
+						(format != null ? format : FileImport.guess(target[0])));
 			}
+		} catch (IOException ex) {
+			System.err.println("ERROR: " + ex.getMessage());
+			System.exit(1);
 		}
 
-		saveItem(null);
-		waitForWorkers(".");
-
-		System.out.println(String.format("\nLoaded %d items in %dms.", results.get(2).size(),
-				System.currentTimeMillis() - elapsed));
-
-		if (shootout) {
-			System.out.print("Loading multi-table items...");
-			elapsed = System.currentTimeMillis();
-
-			for (String key : sItems.keySet()) {
-				switch (key) {
-				case "customer":
-					twi = new TableWriteItems("Customers");
-					break;
-
-				case "warehouse":
-					twi = new TableWriteItems("Warehouses");
-					break;
-
-				case "warehouseItem":
-					twi = new TableWriteItems("Products");
-					break;
-
-				case "order":
-					twi = new TableWriteItems("Orders");
-					break;
-
-				case "invoice":
-					twi = new TableWriteItems("Invoices");
-					break;
-
-				case "orderItem":
-					twi = new TableWriteItems("OrderItems");
-					break;
-
-				case "shipment":
-					twi = new TableWriteItems("Shipments");
-					break;
-
-				case "shipItem":
-					twi = new TableWriteItems("ShipmentItems");
-					break;
-				}
-
-				for (Item item : sItems.get(key))
-					saveItem(item);
-				saveItem(null);
-			}
-
-			waitForWorkers(".");
-
-			System.out.println(String.format("\nLoaded %d items in %dms.", results.get(2).size(),
-					System.currentTimeMillis() - elapsed));
+		// importers block on the window, so leave pool threads free for the batch writes they wait on
+		job.run(workers, Math.min(Runtime.getRuntime().availableProcessors(), pipelineSegments()));
+		long done = waitForWorkers(".");
+		try {
+			job.close();
+		} catch (IOException ex) {
+			System.err.println(ex.getMessage());
 		}
 
-		results.put(2, null);
+		System.out.println(String.format("\nImported %d items from %d MB in %dms.", job.getRecords(),
+				job.getBytes() / (1024 * 1024), done - elapsed));
 	}
 
-	private static void queueItem(Item item) {
-		if (results.get(2) == null)
-			results.put(2, new ArrayList<Item>());
-
-		results.get(2).add(item);
+	private static long waitForWorkers(String printChar) {
+		// block until the last worker of the phase completes and return that instant
+		try {
+			return workers.await(printChar);
+		} catch (RuntimeException e) {
+			System.err.println("ERROR: " + e.getCause().getMessage());
+			System.exit(1);
+			return 0L;
+		}
 	}
 
-	private static String getString(int length) {
-		String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890";
-		StringBuilder string = new StringBuilder();
-
-		while (string.length() < length)
-			string.append(chars.charAt(random.nextInt(chars.length())));
-
-		return string.toString();
-	}
+	private static void measureLag(LagProbe probe) {
+		System.out.print("Querying GSI1 for sampled items...");
+		elapsed = System.currentTimeMillis();
 
-	private static void saveItem(Item item) {
-		// add the item to the batch
-		if (item != null) {
-			twi.addItemToPut(item);
+		int seen = probe.await();
 
-			// if the container has 25 items run the batchWrite on a new thread
-			if (twi.getItemsToPut().size() == 25) {
-				tpe.execute(new BatchLoad(twi));
-				twi = new TableWriteItems(twi.getTableName());
-			}
-		} else if (twi.getItemsToPut() != null) {
-			tpe.execute(new BatchLoad(twi));
-			twi = new TableWriteItems(twi.getTableName());
-		}
+		System.out.println(String.format("\nReplication lag of %d sampled items %s", seen,
+				probe.getLag().summary()));
+		if (probe.getUnwritten() > 0 || probe.getUnseen() > 0)
+			System.out.println(String.format("Lost %d sampled items whose write failed and %d never seen in GSI1.",
+					probe.getUnwritten(), probe.getUnseen()));
+		System.out.println(String.format("Lag probe cost %s, measured in %dms.", probe.getCost().summary(),
+				System.currentTimeMillis() - elapsed));
 	}
 
-	private static void waitForWorkers(String printChar) {
-		// sleep until all updates are done
-		while (numThreads.get() > 0)
-			try {
-				System.out.print(printChar);
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				System.err.println(e.getMessage());
-				System.exit(1);
-			}
+	// identifies the generated dataset, other than its seed
+	private static long shopFingerprint() {
+		return KeyCalculator.hash(String.join("|", "shop", counts.get("customers").toString(),
+				counts.get("orders").toString(), counts.get("orderItems").toString(),
+				counts.get("products").toString()));
 	}
 
-	private static void scanTable(int numSegments, boolean indexScan) {
-		System.out.print(String.format("Scanning %s...", (indexScan ? "GSI1" : "table")));
-		elapsed = System.currentTimeMillis();
-		long response = 0L;
-
-		count = 0;
+	private static void openJournal() {
+		// the journal only matches a load of the same dataset
+		Map<String, Integer> sorted = new TreeMap<String, Integer>(counts);
+		long fingerprint = KeyCalculator.hash(String.join("|", demo, table, sorted.toString(),
+				String.valueOf(data.length()), String.valueOf(optimizeKeys), leadingKey));
 
-		// scan until the total items read matches number of items written
-		while (count < counts.get("items")) {
-			response = System.currentTimeMillis();
-			results = new HashMap<Integer, List<Item>>();
-			for (int i = 0; i < numSegments; i++) {
-				tpe.execute(new RunScan(i, numSegments, table, indexScan));
-			}
+		try {
+			journal = new Journal(journalPath, fingerprint, seed);
+		} catch (IOException | IllegalStateException ex) {
+			usage(String.format("ERROR: %s", ex.getMessage()));
+		}
 
-			waitForWorkers(".");
-			count = 0;
-			for (Integer key : results.keySet())
-				count += results.get(key).size();
+		// a journal that records chunks keeps the seed they were generated with
+		if (seedGiven && seed != journal.getSeed())
+			usage(String.format("ERROR: Journal [%s] was written for seed %d.", journalPath, journal.getSeed()));
+		seed = journal.getSeed();
 
-			response = System.currentTimeMillis() - response;
+		resuming = journal.getCompleted() > 0;
+		if (resuming) {
+			if (createTable)
+				usage("ERROR: Tables cannot be created when resuming a load.");
 
-			// if this is not an index scan then we are generating balanced keys so bail out
-			if (indexScan)
-				System.out.print(String.format("\n%d of %d items replicated...", count, counts.get("items")));
-			else
-				break;
+			System.out.println(String.format("Resuming load from journal [%s], %d chunks already written.",
+					journalPath, journal.getCompleted()));
 		}
-
-		System.out.println(String.format("\nScan complete%s %dms.", (indexScan ? ". Replication lag " : "d in"),
-				System.currentTimeMillis() - elapsed - response));
 	}
 
 	private static void setKeys() {
@@ -598,32 +642,111 @@ public class Main {
 				.println(String.format("Calculating %d well distributed partition keys...", counts.get("partitions")));
 		long time = System.currentTimeMillis();
 
-		// load 10K donor items to fill the keyspace
-		loadItems("donor", 10000, null);
+		// the local backend orders keys by the MD5 hash KeyCalculator uses, but the service's hash is not public
+		if (local != null)
+			keys = KeyCalculator.keys(leadingKey, counts.get("partitions"));
+		else
+			keys = scanKeys(entities);
+
+		System.out.println(
+				String.format("Distributed key generation completed in %dms.", System.currentTimeMillis() - time));
+
+		// keys found by a scan are already known to land one per segment
+		if (verifyKeys && !resuming && local != null)
+			verifyKeys(entities);
+	}
 
-		// scan the table matching partitions to segments
-		scanTable(counts.get("partitions"), false);
+	private static <T> List<String> scanKeys(EntityFactory<T> factory) {
+		// the donor items would overwrite and then clear the items a resumed load already wrote
+		if (resuming)
+			usage("ERROR: Partition keys cannot be found by scanning a table a load is resuming into.");
+
+		// load donor items to fill the keyspace
+		System.out.print("Scanning donor items...");
+		LoadPipeline<T> pipeline = new LoadPipeline<T>(factory, workers, table, false, 2 * tpe.getMaximumPoolSize(),
+				null);
+		List<T> donors = new ArrayList<T>(DONOR_ITEMS);
+		for (int count = 0; count < DONOR_ITEMS; count++)
+			donors.add(factory.donor(leadingKey + "#" + count));
+		pipeline.accept(-1, donors);
+		waitForWorkers(".");
+
+		// scan the table matching partitions to segments, keeping only the keys
+		Map<Integer, List<String>> segmentKeys = new TreeMap<Integer, List<String>>();
+		new ScanPipeline(table, counts.get("partitions"), false, RunScan.Mode.KEYS).run((segment, items) -> {
+			List<String> list = segmentKeys.computeIfAbsent(segment, key -> new ArrayList<String>());
+			for (Item item : items)
+				list.add(item.getString("PK"));
+		});
+		waitForWorkers(".");
+		System.out.println();
 
 		// get the middle result from each scan segment
-		for (List<Item> list : results.values())
-			keys.add(list.get(list.size() / 2).getString("PK"));
+		List<String> middle = new ArrayList<String>();
+		for (List<String> list : segmentKeys.values())
+			if (list.size() > 0)
+				middle.add(list.get(list.size() / 2));
 
-		System.out.println(
-				String.format("Distributed key generation completed in %dms.", System.currentTimeMillis() - time));
+		// initialize the table
+		resetTables(Arrays.asList(table));
+
+		return middle;
+	}
+
+	private static <T> void verifyKeys(EntityFactory<T> factory) {
+		System.out.print("Verifying keys against a table scan...");
+
+		// write one donor item per key
+		LoadPipeline<T> pipeline = new LoadPipeline<T>(factory, workers, table, false, 2 * tpe.getMaximumPoolSize(),
+				null);
+		List<T> donors = new ArrayList<T>(keys.size());
+		for (String key : keys)
+			donors.add(factory.donor(key));
+		pipeline.accept(-1, donors);
+		waitForWorkers(".");
 
-		// initialize the results container and the table
-		results.clear();
-		clearTable(table);
+		// scan the table matching partitions to segments and note the segment each key came back from
+		Map<String, Integer> segments = new HashMap<String, Integer>();
+		new ScanPipeline(table, counts.get("partitions"), false, RunScan.Mode.KEYS).run((segment, items) -> {
+			for (Item item : items)
+				segments.put(item.getString("PK"), segment);
+		});
+		waitForWorkers(".");
+
+		// well distributed keys each come back from a segment of their own
+		Map<Integer, Integer> keysPerSegment = new HashMap<Integer, Integer>();
+		for (String key : keys)
+			keysPerSegment.merge(segments.get(key), 1, Integer::sum);
+		int alone = 0;
+		for (String key : keys)
+			if (keysPerSegment.get(segments.get(key)) == 1)
+				alone++;
+
+		System.out.println(String.format("\n%d of %d keys were scanned from a segment of their own.", alone,
+				keys.size()));
+
+		// initialize the table
+		resetTables(Arrays.asList(table));
+
+		// calculated keys that share segments are replaced by keys found with a scan
+		if (alone < keys.size()) {
+			System.out.println("Searching for keys with a table scan instead.");
+			keys = scanKeys(factory);
+		}
 	}
 
 	private static void init() {
 		// configure the client
-		ClientConfiguration config = new ClientConfiguration().withConnectionTimeout(500)
+		config = new ClientConfiguration().withConnectionTimeout(500)
 				.withClientExecutionTimeout(20000).withRequestTimeout(1000).withSocketTimeout(1000)
 				.withRetryPolicy(PredefinedRetryPolicies.getDynamoDBDefaultRetryPolicyWithCustomMaxRetries(20));
 
-		db = new DynamoDB(AmazonDynamoDBClientBuilder.standard().withClientConfiguration(config)
-				.withCredentials(new ProfileCredentialsProvider("default")).build());
+		// the local stand-in replaces the service when -b local was passed
+		client = (local != null ? local
+				: AmazonDynamoDBClientBuilder.standard().withClientConfiguration(config)
+						.withRequestHandlers(Metrics.HANDLER)
+						.withCredentials(new ProfileCredentialsProvider("default")).build());
+		db = new DynamoDB(client);
 	}
 
 	private static void parseArgs(String[] args) {
@@ -661,8 +784,7 @@ public class Main {
 				break;
 
 			case "-s":
-				for (int i = 0; i < Integer.valueOf(argVals.get(key)); i++)
-					data = String.format("%s%s", data, "X");
+				data = ItemFactory.payload(Integer.valueOf(argVals.get(key)));
 				break;
 
 			case "-p":
@@ -692,13 +814,122 @@ public class Main {
 				break;
 
 			case "-d":
-				demo = argVals.get(key);
+				// settings are comma separated name=value pairs after the demo name
+				String[] spec = argVals.get(key).split(":", 2);
+				demo = spec[0];
+				if (spec.length > 1)
+					for (String setting : spec[1].split(",")) {
+						String[] pair = setting.split("=", 2);
+						if (pair.length < 2)
+							usage(String.format("ERROR: Unable to parse demo setting [%s].", setting));
+						demoSettings.put(pair[0], pair[1]);
+					}
+				break;
+
+			case "-k":
+				samples = Integer.valueOf(argVals.get(key));
+				break;
+
+			case "-v":
+				verifyKeys = true;
 				break;
 
 			case "-l":
 				loadItems = false;
 				break;
 
+			case "-z":
+				reset = argVals.get(key);
+				resetGiven = true;
+				if (!Arrays.asList("auto", "delete", "recreate").contains(reset))
+					usage(String.format("ERROR: Unknown reset mode [%s].", reset));
+				break;
+
+			case "-a":
+				switch (argVals.get(key)) {
+				case "item":
+					entities = ItemFactory.ITEMS;
+					break;
+
+				case "attribute":
+					entities = new AttributeFactory();
+					break;
+
+				default:
+					usage(String.format("ERROR: Unknown write path [%s].", argVals.get(key)));
+					break;
+				}
+				break;
+
+			case "-g":
+				seed = Long.valueOf(argVals.get(key));
+				seedGiven = true;
+				break;
+
+			case "-j":
+				journalPath = argVals.get(key);
+				break;
+
+			case "-u":
+				snapshotDir = argVals.get(key);
+				break;
+
+			case "-f":
+				files = Arrays.asList(argVals.get(key).split(","));
+				break;
+
+			case "-y":
+				try {
+					format = FileImport.Format.valueOf(argVals.get(key).toUpperCase());
+				} catch (IllegalArgumentException ex) {
+					usage(String.format("ERROR: Unknown file format [%s].", argVals.get(key)));
+				}
+				break;
+
+			case "-b":
+				String[] backend = argVals.get(key).split(":", 2);
+				if (!backend[0].equals("local"))
+					usage(String.format("ERROR: Unknown backend [%s].", backend[0]));
+
+				// settings are comma separated name=value pairs
+				Map<String, String> settings = new HashMap<String, String>();
+				if (backend.length > 1)
+					for (String setting : backend[1].split(",")) {
+						String[] pair = setting.split("=", 2);
+						if (pair.length < 2)
+							usage(String.format("ERROR: Unable to parse local setting [%s].", setting));
+						settings.put(pair[0], pair[1]);
+					}
+
+				try {
+					local = new LocalDynamoDB(settings);
+				} catch (IllegalArgumentException ex) {
+					usage(String.format("ERROR: %s", ex.getMessage()));
+				}
+
+				// the local tables start out empty
+				createTable = true;
+				break;
+
+			case "-q":
+				rate = Long.valueOf(argVals.get(key));
+				break;
+
+			case "-x":
+				maxConcurrency = Integer.valueOf(argVals.get(key));
+				break;
+
+			case "-h":
+				metricsPort = Integer.valueOf(argVals.get(key));
+				break;
+
+			case "-e":
+				engines = Arrays.asList(argVals.get(key).split(","));
+				for (String engine : engines)
+					if (!Arrays.asList("pool", "async", "virtual").contains(engine))
+						usage(String.format("ERROR: Unknown engine [%s].", engine));
+				break;
+
 			default:
 				usage(String.format("ERROR: Unknown argument [%s].", key));
 				break;
@@ -715,7 +946,9 @@ public class Main {
 										: (table.equals("") ? "-t" : (WCU == 0 ? "-w" : "-r"))))));
 			break;
 
+		case "shootout":
 		case "online-shop":
+		case "workload":
 			if (table.equals("") || (createTable && (WCU == 0 || RCU == 0)))
 				usage(String.format("Missing required option [%s]",
 						(table.equals("") ? "-t" : (WCU == 0 ? "-w" : "-r"))));
@@ -725,6 +958,36 @@ public class Main {
 
 			if (counts.get("customers") == null)
 				counts.put("customers", 10);
+
+			if (counts.get("orders") == null)
+				counts.put("orders", 5);
+
+			if (counts.get("orderItems") == null)
+				counts.put("orderItems", 3);
+
+			if (demo.equals("workload")) {
+				try {
+					workload = new Workload(table, demoSettings, counts.get("customers"), counts.get("orders"),
+							counts.get("orderItems"));
+				} catch (IllegalArgumentException ex) {
+					usage(String.format("ERROR: %s", ex.getMessage()));
+				}
+
+				// closed loop clients each hold a pool thread for the whole run
+				if (workload.getClients() > tpe.getMaximumPoolSize())
+					usage(String.format("ERROR: A closed loop workload runs at most %d clients.",
+							tpe.getMaximumPoolSize()));
+			}
+			break;
+
+		case "import":
+			if (table.equals("") || files.isEmpty() || (createTable && (WCU == 0 || RCU == 0)))
+				usage(String.format("Missing required option [%s]",
+						(table.equals("") ? "-t" : (files.isEmpty() ? "-f" : (WCU == 0 ? "-w" : "-r")))));
+
+			// the files are not generated from a seed, so there are no numbered chunks to journal
+			if (journalPath != null)
+				usage("ERROR: A journal [-j] cannot resume an import.");
 			break;
 		}
 	}
@@ -737,20 +1000,49 @@ public class Main {
 		System.out.println("-c  \t\t\tCreate the table");
 		System.out.println("-w  <number>\t\tTable/index WCU");
 		System.out.println("-r  <number>\t\tTable/index RCU");
-		System.out.println("-d  <string>\t\tName of demo to run [index-lag, online-shop]");
+		System.out.println("-d  <string>\t\tName of demo to run [index-lag, online-shop, shootout, import,");
+		System.out.println("    \t\t\tworkload[:rate=100,clients=0,warmup=10,duration=60,place=10,get=50,");
+		System.out.println("    \t\t\torders=20,ships=10,stock=10]], a workload with clients is closed loop");
+		System.out.println("-e  <string>\t\tComma separated engines, the first runs all workers and the shootout");
+		System.out.println("    \t\t\tcompares all of them [pool, async, virtual]");
+		System.out.println("-x  <number>\t\tMaximum concurrent requests on virtual threads");
+		System.out.println("-a  <string>\t\tBuild writes as Document API items or low-level attribute maps");
+		System.out.println("    \t\t\t[item, attribute]");
+		System.out.println("-b  <string>\t\tRun against an in-process DynamoDB instead of the service, as");
+		System.out.println("    \t\t\tlocal[:latency=4,p99=20,lag=100,burst=300,partitions=0,seed=N]");
+		System.out.println("-h  <number>\t\tLocal HTTP port serving request metrics at /metrics in Prometheus format");
+		System.out.println("-z  <string>\t\tEmpty existing tables by deleting items or by dropping and recreating");
+		System.out.println("    \t\t\tthem, auto recreates tables of more than 10000 items [auto, delete, recreate]");
+		System.out.println("    \t\t\tThe import demo only empties its tables when -z is given");
 
 		System.out.println("\nFor 'index-lag' demo:");
 		System.out.println("-i  <number>\t\tNumber of items [REQUIRED]");
 		System.out.println("-p  <number>\t\tNumber of index partitions [REQUIRED]");
 		System.out.println("-s  <number>\t\tSize of items in bytes");
 		System.out.println("-o  \t\t\tOptimize partition keys");
+		System.out.println("-k  <number>\t\tNumber of items sampled to measure replication lag");
+		System.out.println("-v  \t\t\tVerify calculated partition keys with a table scan on the local backend");
 
-		System.out.println("\nFor 'online-shop' or 'shootout' demo:");
+		System.out.println("\nFor 'online-shop', 'shootout' or 'workload' demo:");
 		System.out.println("-n  <number>\t\tNumber of customers");
 		System.out.println("-m  <number>\t\tMaximum number of orders per customer");
 		System.out.println("-i  <number>\t\tMaximum number of items per order");
 		System.out.println("-p  <number>\t\tNumber of products");
 		System.out.println("-l  \t\t\tSkip table loading");
+		System.out.println("-g  <number>\t\tSeed for generated data, the same seed loads the same items");
+		System.out.println("-j  <string>\t\tJournal file recording loaded chunks, an interrupted load run again");
+		System.out.println("    \t\t\twith the same journal resumes where it stopped");
+		System.out.println("-u  <string>\t\tSnapshot directory, a load of the same -n -m -i -p and seed replays");
+		System.out.println("    \t\t\tits snapshot, and without -g the latest snapshot's seed is used");
+
+		System.out.println("\nFor 'import' demo:");
+		System.out.println("-f  <string>\t\tComma separated files to import, each optionally followed by");
+		System.out.println("    \t\t\t=<table> to write it somewhere other than the -t table");
+		System.out.println("-y  <string>\t\tFormat of the files, CSV for .csv files and JSON Lines otherwise");
+		System.out.println("    \t\t\t[json, dynamodb, csv]");
+
+		System.out.println("\nFor 'shootout' demo:");
+		System.out.println("-q  <number>\t\tFixed rate of getOrderById requests per second");
 		System.exit(1);
 	}
 
@@ -772,6 +1064,7 @@ public class Main {
 				break;
 
 			case "online-shop":
+			case "workload":
 				createIndex(name, "GSI1");
 				Thread.sleep(2000);
 				createIndex(name, "GSI2");
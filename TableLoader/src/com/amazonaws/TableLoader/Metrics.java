@@ -0,0 +1,411 @@
+package com.amazonaws.TableLoader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.Capacity;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Process-wide counters of every DynamoDB request: the capacity consumed per table and index, throttled attempts,
+ * SDK retries, unprocessed items, requests in flight and items moved, with the depth of the worker queue. The SDK
+ * clients report through HANDLER and the local stand-in through begin/end. The counters are published as a JMX MXBean,
+ * in the Prometheus text format over HTTP, and as a periodic console line.
+ * @author rickhou
+ *
+ */
+public class Metrics {
+	private static final long CONSOLE_INTERVAL = 10;
+
+	private static Map<String, DoubleAdder> readUnits = new ConcurrentHashMap<String, DoubleAdder>(),
+			writeUnits = new ConcurrentHashMap<String, DoubleAdder>();
+	private static LongAdder requests = new LongAdder(), attempts = new LongAdder(), throttles = new LongAdder(),
+			errors = new LongAdder(), unprocessed = new LongAdder(), itemsWritten = new LongAdder(),
+			itemsRead = new LongAdder(), inFlight = new LongAdder();
+	private static ScheduledExecutorService console;
+	private static HttpServer server;
+	private static long started = System.nanoTime();
+
+	/**
+	 * counts the requests and attempts of the SDK clients, and the results or errors they end with
+	 */
+	public static final RequestHandler2 HANDLER = new RequestHandler2() {
+		@Override
+		public void beforeRequest(Request<?> request) {
+			requests.increment();
+			inFlight.increment();
+		}
+
+		@Override
+		public void beforeAttempt(HandlerBeforeAttemptContext context) {
+			attempts.increment();
+		}
+
+		@Override
+		public void afterAttempt(HandlerAfterAttemptContext context) {
+			if (isThrottle(context.getException()))
+				throttles.increment();
+		}
+
+		@Override
+		public void afterResponse(Request<?> request, Response<?> response) {
+			end(request.getOriginalRequest(), response.getAwsResponse());
+		}
+
+		@Override
+		public void afterError(Request<?> request, Response<?> response, Exception e) {
+			failed();
+		}
+	};
+
+	/**
+	 * a request is about to be sent, for clients that do not report through HANDLER
+	 */
+	public static void begin() {
+		requests.increment();
+		attempts.increment();
+		inFlight.increment();
+	}
+
+	/**
+	 * a request completed, record what its result reports
+	 * @param request - the request
+	 * @param result - its result
+	 */
+	public static void end(AmazonWebServiceRequest request, Object result) {
+		inFlight.decrement();
+
+		// index reads report their capacity against the table unless it is broken down by index
+		String index = (request instanceof QueryRequest ? ((QueryRequest) request).getIndexName()
+				: (request instanceof ScanRequest ? ((ScanRequest) request).getIndexName() : null));
+		if (result instanceof QueryResult) {
+			itemsRead.add(((QueryResult) result).getCount());
+			consumed(readUnits, ((QueryResult) result).getConsumedCapacity(), index);
+		} else if (result instanceof ScanResult) {
+			itemsRead.add(((ScanResult) result).getCount());
+			consumed(readUnits, ((ScanResult) result).getConsumedCapacity(), index);
+		} else if (result instanceof GetItemResult) {
+			itemsRead.add(((GetItemResult) result).getItem() != null ? 1 : 0);
+			consumed(readUnits, ((GetItemResult) result).getConsumedCapacity(), null);
+		} else if (result instanceof BatchGetItemResult) {
+			BatchGetItemResult get = (BatchGetItemResult) result;
+			for (List<?> items : get.getResponses().values())
+				itemsRead.add(items.size());
+			consumed(readUnits, get.getConsumedCapacity());
+		} else if (result instanceof BatchWriteItemResult) {
+			BatchWriteItemResult write = (BatchWriteItemResult) result;
+			long failed = count(write.getUnprocessedItems());
+			unprocessed.add(failed);
+			if (request instanceof BatchWriteItemRequest)
+				itemsWritten.add(count(((BatchWriteItemRequest) request).getRequestItems()) - failed);
+			consumed(writeUnits, write.getConsumedCapacity());
+		} else if (result instanceof PutItemResult) {
+			itemsWritten.increment();
+			consumed(writeUnits, ((PutItemResult) result).getConsumedCapacity(), null);
+		} else if (result instanceof UpdateItemResult) {
+			itemsWritten.increment();
+			consumed(writeUnits, ((UpdateItemResult) result).getConsumedCapacity(), null);
+		} else if (result instanceof DeleteItemResult) {
+			itemsWritten.increment();
+			consumed(writeUnits, ((DeleteItemResult) result).getConsumedCapacity(), null);
+		}
+	}
+
+	/**
+	 * a request failed after any retries
+	 */
+	public static void failed() {
+		inFlight.decrement();
+		errors.increment();
+	}
+
+	/**
+	 * an attempt was throttled and will be retried, for clients that do not report through HANDLER
+	 */
+	public static void throttled() {
+		attempts.increment();
+		throttles.increment();
+	}
+
+	/**
+	 * register the MXBean, start the console line and, for a port above 0, serve the Prometheus endpoint
+	 * @param port - the local HTTP port, or 0 for none
+	 * @throws IOException - the port could not be bound
+	 */
+	public static void start(int port) throws IOException {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Stats(),
+					new ObjectName("com.amazonaws.TableLoader:type=Metrics"));
+		} catch (JMException ex) {
+			System.err.println("ERROR: Unable to register metrics MXBean: " + ex.getMessage());
+		}
+
+		if (port > 0) {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			server.createContext("/metrics", exchange -> {
+				byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			});
+			server.start();
+		}
+
+		console = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "Metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long[] last = { System.nanoTime(), 0L, 0L };
+		double[] lastUnits = { 0.0, 0.0 };
+		console.scheduleAtFixedRate(() -> {
+			long now = System.nanoTime(), written = itemsWritten.sum(), read = itemsRead.sum();
+			double rcu = sum(readUnits), wcu = sum(writeUnits), seconds = (now - last[0]) / 1e9;
+			System.out.print(String.format("\n[metrics] written=%.0f/s read=%.0f/s WCU=%.0f/s RCU=%.0f/s in-flight=%d"
+					+ " queued=%d throttled=%d unprocessed=%d retries=%d\n",
+					(written - last[1]) / seconds, (read - last[2]) / seconds, (wcu - lastUnits[1]) / seconds,
+					(rcu - lastUnits[0]) / seconds, inFlight.sum(), Main.tpe.getQueue().size(), throttles.sum(),
+					unprocessed.sum(), getRetries()));
+			last[0] = now;
+			last[1] = written;
+			last[2] = read;
+			lastUnits[0] = rcu;
+			lastUnits[1] = wcu;
+		}, CONSOLE_INTERVAL, CONSOLE_INTERVAL, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * stop the console line and the HTTP endpoint
+	 */
+	public static void stop() {
+		if (console != null)
+			console.shutdownNow();
+		if (server != null)
+			server.stop(0);
+	}
+
+	/**
+	 * @return every counter in the Prometheus text exposition format
+	 */
+	public static String prometheus() {
+		StringBuilder out = new StringBuilder();
+		out.append("# TYPE tableloader_consumed_capacity_units_total counter\n");
+		units(out, "read", readUnits);
+		units(out, "write", writeUnits);
+
+		counter(out, "tableloader_requests_total", requests.sum());
+		counter(out, "tableloader_request_errors_total", errors.sum());
+		counter(out, "tableloader_throttled_attempts_total", throttles.sum());
+		counter(out, "tableloader_retries_total", getRetries());
+		counter(out, "tableloader_unprocessed_items_total", unprocessed.sum());
+		counter(out, "tableloader_items_written_total", itemsWritten.sum());
+		counter(out, "tableloader_items_read_total", itemsRead.sum());
+		gauge(out, "tableloader_requests_in_flight", inFlight.sum());
+		gauge(out, "tableloader_worker_queue_depth", Main.tpe.getQueue().size());
+		gauge(out, "tableloader_worker_threads_active", Main.tpe.getActiveCount());
+
+		return out.toString();
+	}
+
+	// attempts beyond the first of each request were retries by the SDK
+	private static long getRetries() {
+		return Math.max(0L, attempts.sum() - requests.sum());
+	}
+
+	private static boolean isThrottle(Exception ex) {
+		if (!(ex instanceof AmazonServiceException))
+			return false;
+
+		String code = ((AmazonServiceException) ex).getErrorCode();
+		return "ProvisionedThroughputExceededException".equals(code) || "ThrottlingException".equals(code)
+				|| "RequestLimitExceeded".equals(code);
+	}
+
+	private static long count(Map<String, List<WriteRequest>> requests) {
+		long count = 0;
+		if (requests != null)
+			for (List<WriteRequest> table : requests.values())
+				count += table.size();
+
+		return count;
+	}
+
+	private static void consumed(Map<String, DoubleAdder> units, List<ConsumedCapacity> capacities) {
+		if (capacities != null)
+			for (ConsumedCapacity capacity : capacities)
+				consumed(units, capacity, null);
+	}
+
+	// split the capacity between the table and its indexes when the breakdown was requested
+	private static void consumed(Map<String, DoubleAdder> units, ConsumedCapacity capacity, String index) {
+		if (capacity == null || capacity.getCapacityUnits() == null)
+			return;
+
+		String table = capacity.getTableName();
+		if (capacity.getGlobalSecondaryIndexes() == null && capacity.getLocalSecondaryIndexes() == null) {
+			add(units, (index != null ? table + "/" + index : table), capacity.getCapacityUnits());
+			return;
+		}
+
+		if (capacity.getTable() != null)
+			add(units, table, capacity.getTable().getCapacityUnits());
+		for (Map<String, Capacity> indexes : Arrays.asList(capacity.getGlobalSecondaryIndexes(),
+				capacity.getLocalSecondaryIndexes()))
+			if (indexes != null)
+				for (Map.Entry<String, Capacity> entry : indexes.entrySet())
+					add(units, table + "/" + entry.getKey(), entry.getValue().getCapacityUnits());
+	}
+
+	private static void add(Map<String, DoubleAdder> units, String resource, Double value) {
+		if (value != null)
+			units.computeIfAbsent(resource, key -> new DoubleAdder()).add(value);
+	}
+
+	private static double sum(Map<String, DoubleAdder> units) {
+		double total = 0;
+		for (DoubleAdder adder : units.values())
+			total += adder.sum();
+
+		return total;
+	}
+
+	private static void units(StringBuilder out, String kind, Map<String, DoubleAdder> units) {
+		for (Map.Entry<String, DoubleAdder> entry : new TreeMap<String, DoubleAdder>(units).entrySet()) {
+			String[] resource = entry.getKey().split("/", 2);
+			out.append(String.format("tableloader_consumed_capacity_units_total{kind=\"%s\",table=\"%s\"", kind,
+					resource[0]));
+			if (resource.length > 1)
+				out.append(String.format(",index=\"%s\"", resource[1]));
+			out.append(String.format("} %s\n", entry.getValue().sum()));
+		}
+	}
+
+	private static void counter(StringBuilder out, String name, long value) {
+		out.append(String.format("# TYPE %s counter\n%s %d\n", name, name, value));
+	}
+
+	private static void gauge(StringBuilder out, String name, long value) {
+		out.append(String.format("# TYPE %s gauge\n%s %d\n", name, name, value));
+	}
+
+	private static Map<String, Double> totals(Map<String, DoubleAdder> units) {
+		Map<String, Double> totals = new TreeMap<String, Double>();
+		for (Map.Entry<String, DoubleAdder> entry : units.entrySet())
+			totals.put(entry.getKey(), entry.getValue().sum());
+
+		return totals;
+	}
+
+	/**
+	 * the attributes published over JMX
+	 */
+	public interface StatsMXBean {
+		Map<String, Double> getReadCapacityUnits();
+
+		Map<String, Double> getWriteCapacityUnits();
+
+		long getRequests();
+
+		long getRequestsInFlight();
+
+		long getThrottledAttempts();
+
+		long getRetries();
+
+		long getUnprocessedItems();
+
+		long getItemsWritten();
+
+		long getItemsRead();
+
+		double getItemsWrittenPerSecond();
+
+		int getWorkerQueueDepth();
+	}
+
+	private static class Stats implements StatsMXBean {
+		public Map<String, Double> getReadCapacityUnits() {
+			return totals(readUnits);
+		}
+
+		public Map<String, Double> getWriteCapacityUnits() {
+			return totals(writeUnits);
+		}
+
+		public long getRequests() {
+			return requests.sum();
+		}
+
+		public long getRequestsInFlight() {
+			return inFlight.sum();
+		}
+
+		public long getThrottledAttempts() {
+			return throttles.sum();
+		}
+
+		public long getRetries() {
+			return Metrics.getRetries();
+		}
+
+		public long getUnprocessedItems() {
+			return unprocessed.sum();
+		}
+
+		public long getItemsWritten() {
+			return itemsWritten.sum();
+		}
+
+		public long getItemsRead() {
+			return itemsRead.sum();
+		}
+
+		// over the whole run, a rate over a window is left to the monitoring side
+		public double getItemsWrittenPerSecond() {
+			return itemsWritten.sum() / ((System.nanoTime() - started) / 1e9);
+		}
+
+		public int getWorkerQueueDepth() {
+			return Main.tpe.getQueue().size();
+		}
+	}
+}
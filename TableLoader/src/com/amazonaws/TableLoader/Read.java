@@ -0,0 +1,20 @@
+package com.amazonaws.TableLoader;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+
+/**
+ * A read that runs on a worker thread or through the asynchronous engine
+ * @author rickhou
+ *
+ */
+public interface Read extends Runnable {
+	/**
+	 * execute the read on the asynchronous engine
+	 * @param engine - the engine
+	 * @return a future that completes with the items read once they are published
+	 */
+	CompletableFuture<List<Item>> runAsync(AsyncEngine engine);
+}
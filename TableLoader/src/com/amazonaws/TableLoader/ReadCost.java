@@ -0,0 +1,66 @@
+package com.amazonaws.TableLoader;
+
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+
+/**
+ * Counts the read requests issued and the read capacity they consumed
+ * @author rickhou
+ *
+ */
+public class ReadCost {
+	private LongAdder requests = new LongAdder();
+	private DoubleAdder units = new DoubleAdder();
+
+	/**
+	 * record one request
+	 * @param capacity - the capacity returned with the response, or null
+	 */
+	public void record(ConsumedCapacity capacity) {
+		requests.increment();
+		consumed(capacity);
+	}
+
+	/**
+	 * record one request that read from several tables
+	 * @param capacities - the capacity returned for each table, or null
+	 */
+	public void record(List<ConsumedCapacity> capacities) {
+		requests.increment();
+		if (capacities != null)
+			for (ConsumedCapacity capacity : capacities)
+				consumed(capacity);
+	}
+
+	/**
+	 * add the requests and capacity of another cost
+	 * @param other - the other cost
+	 */
+	public void add(ReadCost other) {
+		requests.add(other.getRequests());
+		units.add(other.getUnits());
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public double getUnits() {
+		return units.sum();
+	}
+
+	private void consumed(ConsumedCapacity capacity) {
+		if (capacity != null && capacity.getCapacityUnits() != null)
+			units.add(capacity.getCapacityUnits());
+	}
+
+	/**
+	 * @return the request count and capacity on one line
+	 */
+	public String summary() {
+		return String.format("requests=%d RCU=%.1f", getRequests(), getUnits());
+	}
+}
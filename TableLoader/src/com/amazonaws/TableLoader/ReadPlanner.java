@@ -0,0 +1,88 @@
+package com.amazonaws.TableLoader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+
+/**
+ * Plans the reads that fetch an order from the multi-table model. Tables with one item per order are read by
+ * primary key in one BatchGetItem per order; tables with many items per order are queried. The batch is sent with the
+ * order's queries rather than shared with later orders, so an order's latency never includes time spent waiting for
+ * other orders to fill a batch. The invoice and shipment sort keys are derived from the order ID as ShopGenerator
+ * assigns them, so the gets only find items loaded by ShopGenerator.
+ * @author rickhou
+ *
+ */
+public class ReadPlanner {
+	// the sort key of the single item each table holds for an order, following the IDs ShopGenerator assigns
+	private static final Map<String, Function<Item, String>> GETS = new LinkedHashMap<String, Function<Item, String>>();
+	static {
+		GETS.put("Orders", order -> order.getString("SK"));
+		GETS.put("Invoices", order -> "I#" + order.getString("PK").substring(2));
+		GETS.put("Shipments", order -> "S#" + order.getString("PK").substring(2));
+	}
+
+	// tables holding any number of items for an order
+	private static final String[] QUERIES = { "OrderItems", "ShipmentItems" };
+
+	private LatencyHistogram latency;
+	private Map<String, LatencyHistogram> tables;
+	private ReadCost cost;
+	private Results results;
+
+	/**
+	 * Constructor
+	 * @param latency - the histogram that receives the latency of each order fetch
+	 * @param tables - receives the latency of each operation, keyed by operation and table
+	 * @param cost - receives the requests and capacity of every read
+	 * @param results - receives the items read
+	 */
+	public ReadPlanner(LatencyHistogram latency, Map<String, LatencyHistogram> tables, ReadCost cost,
+			Results results) {
+		this.latency = latency;
+		this.tables = tables;
+		this.cost = cost;
+		this.results = results;
+	}
+
+	/**
+	 * plan the reads for an order
+	 * @param order - the order item read from the Orders table
+	 * @param intended - the scheduled start time in nanoseconds when running at a fixed rate, otherwise 0
+	 * @return the reads to issue now: the queries for the order and the batch of its gets
+	 */
+	public List<Read> add(Item order, long intended) {
+		String pKey = order.getString("PK");
+		RunQuery.OrderFetch fetch = new RunQuery.OrderFetch(QUERIES.length + 1, intended, latency, cost,
+				results);
+
+		List<Read> reads = new ArrayList<Read>();
+		for (String name : QUERIES)
+			reads.add(new RunQuery(name, pKey, fetch, histogram(String.format("Query [%s]", name))));
+
+		Map<String, KeysAndAttributes> keys = new HashMap<String, KeysAndAttributes>();
+		for (Map.Entry<String, Function<Item, String>> entry : GETS.entrySet()) {
+			Map<String, AttributeValue> key = new HashMap<String, AttributeValue>(4);
+			key.put("PK", new AttributeValue(pKey));
+			key.put("SK", new AttributeValue(entry.getValue().apply(order)));
+
+			keys.put(entry.getKey(), new KeysAndAttributes().withKeys(Collections.singletonList(key)));
+		}
+		reads.add(new RunBatchGet(keys, Collections.singletonList(fetch),
+				histogram(String.format("BatchGetItem %s", GETS.keySet())), cost, results));
+
+		return reads;
+	}
+
+	private LatencyHistogram histogram(String name) {
+		return tables.computeIfAbsent(name, key -> new LatencyHistogram());
+	}
+}
@@ -0,0 +1,70 @@
+package com.amazonaws.TableLoader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+
+/**
+ * Collects the items read by concurrent workers without a shared lock. Readers of the same order only contend on
+ * that order's entry, and the contents are read once the phase that filled them has been awaited.
+ * @author rickhou
+ *
+ */
+public class Results {
+	private Map<Integer, List<Item>> segments = new ConcurrentHashMap<Integer, List<Item>>();
+	private Map<String, List<Item>> orders = new ConcurrentHashMap<String, List<Item>>();
+	private LongAdder items = new LongAdder();
+
+	/**
+	 * publish the items read by a scan segment
+	 * @param segment - the segment
+	 * @param segmentItems - the items
+	 */
+	public void addSegment(int segment, List<Item> segmentItems) {
+		segments.put(segment, segmentItems);
+		items.add(segmentItems.size());
+	}
+
+	/**
+	 * publish items that belong to an order, appending to those read by other requests for the same order
+	 * @param pKey - the order ID
+	 * @param orderItems - the items
+	 */
+	public void addOrder(String pKey, List<Item> orderItems) {
+		// the list is only modified inside compute, which locks the entry for the order
+		orders.compute(pKey, (key, list) -> {
+			if (list == null)
+				list = new ArrayList<Item>(orderItems.size());
+
+			list.addAll(orderItems);
+			return list;
+		});
+		items.add(orderItems.size());
+	}
+
+	/**
+	 * @return the items of each scan segment
+	 */
+	public Collection<List<Item>> getSegments() {
+		return segments.values();
+	}
+
+	/**
+	 * @return the items of each order
+	 */
+	public Map<String, List<Item>> getOrders() {
+		return orders;
+	}
+
+	/**
+	 * @return the number of items published
+	 */
+	public long getItems() {
+		return items.sum();
+	}
+}
@@ -0,0 +1,175 @@
+package com.amazonaws.TableLoader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Schedules unprocessed batch write items for retry with decorrelated exponential backoff and jitter,
+ * coalescing items that come due together into full batches
+ * @author rickhou
+ *
+ */
+public class RetryScheduler {
+	private static final long BASE = TimeUnit.MILLISECONDS.toNanos(50), CAP = TimeUnit.SECONDS.toNanos(5);
+	private static final int BATCH_SIZE = 25;
+
+	private static DelayQueue<Retry> queue = new DelayQueue<Retry>();
+	private static Map<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+
+	static {
+		Thread dispatcher = new Thread(RetryScheduler::dispatch, "RetryScheduler");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * hand unprocessed items to the scheduler
+	 * @param unprocessed - the unprocessed items returned by a batch write
+	 * @param backoff - the backoff in nanoseconds used for the previous attempt, 0 on the first
+	 */
+	public static void schedule(Map<String, List<WriteRequest>> unprocessed, long backoff) {
+		schedule(unprocessed, backoff, null);
+	}
+
+	/**
+	 * hand unprocessed items from journaled chunks to the scheduler
+	 * @param unprocessed - the unprocessed items returned by a batch write to a single table
+	 * @param backoff - the backoff in nanoseconds used for the previous attempt, 0 on the first
+	 * @param checkpoints - the checkpoint of each unprocessed item in order, or null
+	 */
+	public static void schedule(Map<String, List<WriteRequest>> unprocessed, long backoff,
+			List<Journal.Checkpoint> checkpoints) {
+		// decorrelated jitter: a random delay between the base and three times the last one
+		long delay = Math.min(CAP, ThreadLocalRandom.current().nextLong(BASE, Math.max(BASE, backoff) * 3 + 1));
+		long due = System.nanoTime() + delay;
+		TaskGroup group = (TaskGroup.current() != null ? TaskGroup.current() : Main.workers);
+
+		for (Map.Entry<String, List<WriteRequest>> entry : unprocessed.entrySet()) {
+			// pending retries keep the phase of the failed batch open until they are written
+			group.hold(entry.getValue().size());
+
+			List<WriteRequest> requests = entry.getValue();
+			for (int i = 0; i < requests.size(); i++)
+				queue.add(new Retry(group, entry.getKey(), requests.get(i),
+						(checkpoints != null ? checkpoints.get(i) : null), delay, due));
+		}
+	}
+
+	// move due items back to their task group in batches of up to 25 per table
+	private static void dispatch() {
+		while (true) {
+			List<Retry> due = new ArrayList<Retry>();
+			try {
+				due.add(queue.take());
+			} catch (InterruptedException e) {
+				System.err.println("ERROR: " + e.getMessage());
+				System.exit(1);
+			}
+
+			// this is the only thread draining the queue, so a failure here would leave every phase holding retries
+			try {
+				submit(due);
+			} catch (RuntimeException e) {
+				System.err.println("ERROR: Unable to dispatch retries: " + e);
+				System.exit(1);
+			}
+		}
+	}
+
+	// group the due retries by task group and table and submit them as batch writes
+	private static void submit(List<Retry> due) {
+		// drainTo only removes entries whose delay has expired
+		queue.drainTo(due);
+
+		Map<TaskGroup, Map<String, List<Retry>>> groups = new HashMap<TaskGroup, Map<String, List<Retry>>>();
+		for (Retry retry : due)
+			groups.computeIfAbsent(retry.group, key -> new HashMap<String, List<Retry>>())
+					.computeIfAbsent(retry.table, key -> new ArrayList<Retry>()).add(retry);
+
+		long now = System.nanoTime();
+		for (Map.Entry<TaskGroup, Map<String, List<Retry>>> group : groups.entrySet())
+			for (Map.Entry<String, List<Retry>> entry : group.getValue().entrySet()) {
+				List<Retry> retries = entry.getValue();
+				for (int i = 0; i < retries.size(); i += BATCH_SIZE) {
+					List<WriteRequest> requests = new ArrayList<WriteRequest>();
+					List<Journal.Checkpoint> checkpoints = new ArrayList<Journal.Checkpoint>();
+					boolean journaled = false;
+					long backoff = 0L, waited = 0L;
+
+					for (Retry retry : retries.subList(i, Math.min(i + BATCH_SIZE, retries.size()))) {
+						requests.add(retry.request);
+						checkpoints.add(retry.checkpoint);
+						journaled |= retry.checkpoint != null;
+						backoff = Math.max(backoff, retry.backoff);
+						waited = Math.max(waited, now - retry.due + retry.backoff);
+					}
+
+					Stats s = stats.computeIfAbsent(entry.getKey(), key -> new Stats());
+					s.batches.increment();
+					s.items.add(requests.size());
+					s.backoff.add(waited);
+
+					Map<String, List<WriteRequest>> batch = new HashMap<String, List<WriteRequest>>();
+					batch.put(entry.getKey(), requests);
+					group.getKey().submit(new BatchLoad(batch, backoff, (journaled ? checkpoints : null)));
+					group.getKey().release(requests.size());
+				}
+			}
+	}
+
+	/**
+	 * @return one summary line per table that had items retried
+	 */
+	public static List<String> report() {
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+			Stats s = entry.getValue();
+			lines.add(String.format("Retried %d unprocessed items in %d batches on [%s], %dms in backoff.",
+					s.items.sum(), s.batches.sum(), entry.getKey(), TimeUnit.NANOSECONDS.toMillis(s.backoff.sum())));
+		}
+
+		return lines;
+	}
+
+	private static class Stats {
+		LongAdder batches = new LongAdder(), items = new LongAdder(), backoff = new LongAdder();
+	}
+
+	private static class Retry implements Delayed {
+		TaskGroup group;
+		String table;
+		WriteRequest request;
+		Journal.Checkpoint checkpoint;
+		long backoff, due;
+
+		Retry(TaskGroup group, String table, WriteRequest request, Journal.Checkpoint checkpoint, long backoff,
+				long due) {
+			this.group = group;
+			this.table = table;
+			this.request = request;
+			this.checkpoint = checkpoint;
+			this.backoff = backoff;
+			this.due = due;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(due, ((Retry) o).due);
+		}
+	}
+}
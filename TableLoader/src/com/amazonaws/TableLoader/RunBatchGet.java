@@ -0,0 +1,137 @@
+package com.amazonaws.TableLoader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+
+/**
+ * reads items by primary key from several tables in one BatchGetItem, completing the fetch of every order it serves
+ * @author rickhou
+ *
+ */
+public class RunBatchGet implements Read {
+	static final long BACKOFF = TimeUnit.MILLISECONDS.toNanos(50);
+	static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(1);
+
+	// resubmits unprocessed keys once their backoff expires, so no worker sits out the delay
+	private static ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "RunBatchGetTimer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private Map<String, KeysAndAttributes> keys;
+	private List<RunQuery.OrderFetch> fetches;
+	private LatencyHistogram latency;
+	private ReadCost cost;
+	private Results results;
+	// the state carried by a resubmission of unprocessed keys
+	private List<Item> items = new ArrayList<Item>();
+	private long start, backoff = BACKOFF;
+
+	/**
+	 * Constructor
+	 * @param keys - up to 100 keys, keyed by table
+	 * @param fetches - the order fetches the keys belong to
+	 * @param latency - the histogram that receives the latency of the batch
+	 * @param cost - receives the requests and capacity of the batch
+	 * @param results - receives the items read
+	 */
+	public RunBatchGet(Map<String, KeysAndAttributes> keys, List<RunQuery.OrderFetch> fetches,
+			LatencyHistogram latency, ReadCost cost, Results results) {
+		this.keys = keys;
+		this.fetches = fetches;
+		this.latency = latency;
+		this.cost = cost;
+		this.results = results;
+	}
+
+	/**
+	 * the runnable process that executes the read, resubmitting unprocessed keys to its task group after a backoff
+	 */
+	@Override
+	public void run() {
+		if (start == 0L)
+			start = started();
+
+		BatchGetItemResult result = Main.client.batchGetItem(new BatchGetItemRequest().withRequestItems(keys)
+				.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL));
+		cost.record(result.getConsumedCapacity());
+
+		for (List<Map<String, AttributeValue>> response : result.getResponses().values())
+			items.addAll(ItemUtils.toItemList(response));
+
+		Map<String, KeysAndAttributes> unprocessed = result.getUnprocessedKeys();
+		if (unprocessed == null || unprocessed.isEmpty()) {
+			finished(start, items);
+			return;
+		}
+
+		// the pending retry keeps the phase open until it has been resubmitted
+		TaskGroup group = (TaskGroup.current() != null ? TaskGroup.current() : Main.workers);
+		group.hold(1);
+		keys = unprocessed;
+		long delay = backoff;
+		backoff = Math.min(2 * backoff, MAX_BACKOFF);
+		timer.schedule(() -> {
+			try {
+				group.submit(this);
+			} catch (RuntimeException e) {
+				System.err.println("ERROR: Unable to resubmit unprocessed keys: " + e);
+				System.exit(1);
+			} finally {
+				group.release(1);
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * execute the read on the asynchronous engine
+	 * @param engine - the engine
+	 * @return a future that completes once the results are published
+	 */
+	@Override
+	public CompletableFuture<List<Item>> runAsync(AsyncEngine engine) {
+		long start = started();
+
+		return engine.batchGet(keys, cost).thenApply(items -> {
+			finished(start, items);
+			return items;
+		});
+	}
+
+	private long started() {
+		long start = System.nanoTime();
+		for (RunQuery.OrderFetch fetch : fetches)
+			fetch.started(start);
+
+		return start;
+	}
+
+	private void finished(long start, List<Item> items) {
+		// publish the items under the order they belong to
+		Map<String, List<Item>> orders = new HashMap<String, List<Item>>();
+		for (Item item : items)
+			orders.computeIfAbsent(item.getString("PK"), key -> new ArrayList<Item>()).add(item);
+		for (Map.Entry<String, List<Item>> entry : orders.entrySet())
+			results.addOrder(entry.getKey(), entry.getValue());
+
+		long end = System.nanoTime();
+		latency.record(end - start);
+		for (RunQuery.OrderFetch fetch : fetches)
+			fetch.completed(end);
+	}
+}
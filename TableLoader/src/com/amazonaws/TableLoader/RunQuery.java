@@ -2,6 +2,10 @@ package com.amazonaws.TableLoader;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.ItemCollection;
@@ -9,46 +13,131 @@ import com.amazonaws.services.dynamodbv2.document.Page;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
 import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
 
 /**
  * reads all items from a given logical partition on a DynamoDB table
  * @author rickhou
  *
  */
-public class RunQuery implements Runnable {
+public class RunQuery implements Read {
 	private String pKey, table;
+	private OrderFetch fetch;
+	private LatencyHistogram latency;
 
 	public RunQuery(String table, String pKey) {
 		this.table = table;
 		this.pKey = pKey;
 	}
 
+	/**
+	 * Constructor for a timed read
+	 * @param fetch - the order fetch this query is part of
+	 * @param latency - the histogram that receives the latency of this query
+	 */
+	public RunQuery(String table, String pKey, OrderFetch fetch, LatencyHistogram latency) {
+		this(table, pKey);
+		this.fetch = fetch;
+		this.latency = latency;
+	}
+
 	/**
 	 * the runnable process that executes the read
 	 */
 	@Override
 	public void run() {
+		long start = started();
+
 		QuerySpec spec = new QuerySpec().withKeyConditionExpression("PK = :pKey")
-				.withValueMap(new ValueMap().withString(":pKey", pKey));
+				.withValueMap(new ValueMap().withString(":pKey", pKey))
+				.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
 
 		ItemCollection<QueryOutcome> results = Main.db.getTable(table).query(spec);
 
 		ArrayList<Item> items = new ArrayList<Item>();
 		for (Page<Item, QueryOutcome> page : results.pages()) {
+			if (fetch != null)
+				fetch.cost.record(page.getLowLevelResult().getQueryResult().getConsumedCapacity());
+
 			Iterator<Item> it = page.iterator();
 			while (it.hasNext()) {
 				items.add(it.next());
 			}
 		}
 
-		synchronized (Main.sync) {
-			// put these results in the result map
-			if (Main.sItems.containsKey(pKey))
-				Main.sItems.get(pKey).addAll(items);
-			else
-				Main.sItems.put(pKey, items);
-			
-			Main.numThreads.decrementAndGet();
+		finished(start, items);
+	}
+
+	/**
+	 * execute the read on the asynchronous engine
+	 * @param engine - the engine
+	 * @return a future that completes once the results are published
+	 */
+	@Override
+	public CompletableFuture<List<Item>> runAsync(AsyncEngine engine) {
+		long start = started();
+
+		return engine.query(table, pKey, (fetch != null ? fetch.cost : null)).thenApply(items -> {
+			finished(start, items);
+			return items;
+		});
+	}
+
+	private long started() {
+		long start = System.nanoTime();
+		if (fetch != null)
+			fetch.started(start);
+
+		return start;
+	}
+
+	private void finished(long start, List<Item> items) {
+		if (fetch != null)
+			fetch.results.addOrder(pKey, items);
+
+		long end = System.nanoTime();
+		if (latency != null)
+			latency.record(end - (fetch != null && fetch.intended > 0 ? fetch.intended : start));
+		if (fetch != null)
+			fetch.completed(end);
+	}
+
+	/**
+	 * tracks the reads that together fetch one order and records the latency of the whole fetch
+	 */
+	public static class OrderFetch {
+		private AtomicInteger remaining;
+		private AtomicLong start = new AtomicLong(Long.MAX_VALUE);
+		private LatencyHistogram latency;
+		private ReadCost cost;
+		private Results results;
+		private long intended;
+
+		/**
+		 * Constructor
+		 * @param reads - the number of reads that fetch the order
+		 * @param intended - the scheduled start time in nanoseconds when running at a fixed rate, otherwise 0
+		 * @param latency - the histogram that receives the latency of the fetch
+		 * @param cost - receives the requests and capacity of the reads
+		 * @param results - receives the items read
+		 */
+		public OrderFetch(int reads, long intended, LatencyHistogram latency, ReadCost cost, Results results) {
+			this.remaining = new AtomicInteger(reads);
+			this.intended = intended;
+			this.latency = latency;
+			this.cost = cost;
+			this.results = results;
+		}
+
+
+		void started(long nanos) {
+			start.accumulateAndGet(nanos, Math::min);
+		}
+
+		// at a fixed rate latency runs from the scheduled start so queueing delay is not omitted
+		void completed(long nanos) {
+			if (remaining.decrementAndGet() == 0)
+				latency.record(nanos - (intended > 0 ? intended : start.get()));
 		}
 	}
 }
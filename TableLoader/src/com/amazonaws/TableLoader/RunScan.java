@@ -3,12 +3,15 @@ package com.amazonaws.TableLoader;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.ItemCollection;
 import com.amazonaws.services.dynamodbv2.document.Page;
 import com.amazonaws.services.dynamodbv2.document.ScanOutcome;
 import com.amazonaws.services.dynamodbv2.document.spec.ScanSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
 
 /**
  * reads all items from a given logical partition on a DynamoDB table
@@ -16,20 +19,57 @@ import com.amazonaws.services.dynamodbv2.document.spec.ScanSpec;
  *
  */
 public class RunScan implements Runnable {
+	/**
+	 * What a scan returns: whole items or only the table key
+	 */
+	public enum Mode {
+		ITEMS, KEYS
+	}
+
+	static final String KEY_PROJECTION = "PK, SK";
+
 	private int shard, segments;
 	private String tableName;
 	private boolean indexScan;
+	private Mode mode;
+	private BlockingQueue<ScanPipeline.Chunk> sink;
+	private Integer pageLimit;
+	private List<String> keys;
+	private ReadCost cost;
+	private Results results;
 	List<Item> items = new ArrayList<Item>();
 
-	public RunScan(int shard, int segments, String tableName, boolean  indexScan) {
+	public RunScan(int shard, int segments, String tableName, boolean  indexScan, Mode mode) {
 		this.shard = shard;
 		this.tableName = tableName;
 		this.indexScan = indexScan;
 		this.segments = segments;
-		
-		synchronized (Main.sync) {
-			Main.numThreads.incrementAndGet();
-		}
+		this.mode = mode;
+	}
+
+	/**
+	 * Constructor for a scan that publishes the whole segment
+	 * @param results - receives the items of the segment
+	 */
+	public RunScan(int shard, int segments, String tableName, boolean indexScan, Mode mode, Results results) {
+		this(shard, segments, tableName, indexScan, mode);
+		this.results = results;
+	}
+
+	/**
+	 * Constructor for a streaming scan
+	 * @param sink - the queue that receives each page as it is read
+	 * @param pageLimit - the most items evaluated per page, or null for 1MB pages
+	 * @param cost - receives the requests and capacity of every page
+	 * @param keys - the table's key attribute names read in KEYS mode, or null for PK and SK
+	 */
+	public RunScan(int shard, int segments, String tableName, boolean indexScan, Mode mode,
+			BlockingQueue<ScanPipeline.Chunk> sink, Integer pageLimit, ReadCost cost, List<String> keys) {
+		this(shard, segments, tableName, indexScan, mode);
+		this.sink = sink;
+		this.pageLimit = pageLimit;
+		this.cost = cost;
+		this.keys = keys;
 	}
 
 	/**
@@ -39,25 +79,78 @@ public class RunScan implements Runnable {
 	public void run() {
 		ScanSpec spec = new ScanSpec().withSegment(shard).withTotalSegments(segments);
 		ItemCollection<ScanOutcome> results = null;
-		
+
+		// callers that only need keys leave the rest of each item on the server
+		if (mode == Mode.KEYS && keys != null) {
+			// key names are aliased in case they are reserved words
+			NameMap names = new NameMap();
+			List<String> aliases = new ArrayList<String>();
+			for (String key : keys) {
+				aliases.add("#k" + aliases.size());
+				names.with(aliases.get(aliases.size() - 1), key);
+			}
+			spec.withProjectionExpression(String.join(", ", aliases)).withNameMap(names);
+		} else if (mode == Mode.KEYS)
+			spec.withProjectionExpression(KEY_PROJECTION);
+
+		// streaming scans size their pages, and every scan reports what it consumes to the metrics
+		if (pageLimit != null)
+			spec.withMaxPageSize(pageLimit);
+		spec.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
 		if (indexScan)
 			results = Main.db.getTable(tableName).getIndex("GSI1").scan(spec);
 		else
 			results = Main.db.getTable(tableName).scan(spec);
 
+		if (sink != null) {
+			stream(results);
+			return;
+		}
+
 		for (Page<Item, ScanOutcome> page : results.pages()) {
 			Iterator<Item> it = page.iterator();
-			
+
 			while (it.hasNext()) {
 				items.add(it.next());
 			}
 		}
 
-		synchronized (Main.sync) {
-			// put these results in the result map
-			Main.results.put(shard, items);
-			Main.numThreads.decrementAndGet();
-			Main.count += items.size();
+		publish();
+	}
+
+	private void publish() {
+		if (results != null)
+			results.addSegment(shard, items);
+	}
+
+	// push each page downstream as it arrives, blocking while the pipeline is full
+	private void stream(ItemCollection<ScanOutcome> results) {
+		try {
+			for (Page<Item, ScanOutcome> page : results.pages()) {
+				List<Item> chunk = new ArrayList<Item>(page.size());
+				Iterator<Item> it = page.iterator();
+
+				while (it.hasNext()) {
+					chunk.add(it.next());
+				}
+
+				cost.record(page.getLowLevelResult().getScanResult().getConsumedCapacity());
+
+				put(new ScanPipeline.Chunk(shard, chunk, chunk.size()));
+			}
+		} finally {
+			// always mark the segment complete so the consumer is released
+			put(new ScanPipeline.Chunk(shard, null, 0));
+		}
+	}
+
+	private void put(ScanPipeline.Chunk chunk) {
+		try {
+			sink.put(chunk);
+		} catch (InterruptedException e) {
+			System.err.println("ERROR: " + e.getMessage());
+			System.exit(1);
 		}
 	}
 }
@@ -0,0 +1,189 @@
+package com.amazonaws.TableLoader;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+
+/**
+ * Parallel scan that streams pages from every segment through a bounded queue to a downstream stage. Each segment
+ * reads its next page while the stage works through the ones already queued.
+ * @author rickhou
+ *
+ */
+public class ScanPipeline {
+	private static final int CAPACITY = 64;
+	// an adaptive scan cuts the table into segments of about this size and starts one reader per initial share
+	private static final long SEGMENT_BYTES = 8L * 1024 * 1024, READER_BYTES = 64L * 1024 * 1024;
+	// at most this many seconds of a reader's share of the read capacity is spent on one page
+	private static final double PAGE_SECONDS = 0.25;
+	// readers are added while the scan consumes less than this share of the read capacity
+	private static final double TARGET_UTILIZATION = 0.8;
+	private static final long RAMP_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(CAPACITY);
+	private ReadCost cost = new ReadCost();
+	private String tableName;
+	private int segments, readers, maxReaders;
+	private boolean indexScan;
+	private RunScan.Mode mode;
+	private Integer pageLimit;
+	// the table's key attributes, read by a keys-only scan, or null for PK and SK
+	private List<String> keys;
+	private long rcu;
+
+	/**
+	 * Constructor for a scan with a fixed number of segments, as many read at once as the pool has threads. The pages
+	 * are consumed on the thread that submits the readers, so it must never wait on the workers' window for them.
+	 * @param tableName - the table to scan
+	 * @param segments - the number of parallel scan segments
+	 * @param indexScan - scan GSI1 instead of the table
+	 * @param mode - whether pages carry whole items or only their keys
+	 */
+	public ScanPipeline(String tableName, int segments, boolean indexScan, RunScan.Mode mode) {
+		this.tableName = tableName;
+		this.segments = segments;
+		this.readers = Math.min(segments, Main.tpe.getMaximumPoolSize());
+		this.maxReaders = readers;
+		this.indexScan = indexScan;
+		this.mode = mode;
+	}
+
+	/**
+	 * plan a scan from the size and read capacity of the table. The table is cut into more segments than there are
+	 * readers so a reader that finishes early takes the next segment instead of idling behind a straggler, readers
+	 * are added while the scan runs below the read capacity, and pages are sized so one page never takes a large
+	 * bite out of a reader's share of that capacity.
+	 * @param tableName - the table to scan
+	 * @param indexScan - scan GSI1 instead of the table
+	 * @param mode - whether pages carry whole items or only their keys
+	 * @param maxReaders - the most segments read at once
+	 * @return the pipeline
+	 */
+	public static ScanPipeline adaptive(String tableName, boolean indexScan, RunScan.Mode mode, int maxReaders) {
+		TableDescription table = Main.client.describeTable(tableName).getTable();
+		long bytes = table.getTableSizeBytes(), items = table.getItemCount();
+		long rcu = table.getProvisionedThroughput().getReadCapacityUnits();
+		if (indexScan && table.getGlobalSecondaryIndexes() != null)
+			for (GlobalSecondaryIndexDescription index : table.getGlobalSecondaryIndexes())
+				if (index.getIndexName().equals("GSI1")) {
+					bytes = index.getIndexSizeBytes();
+					items = index.getItemCount();
+					rcu = index.getProvisionedThroughput().getReadCapacityUnits();
+				}
+
+		// DynamoDB refreshes the size about every six hours, so a table that looks empty may not be
+		if (items == 0) {
+			ScanPipeline pipeline = new ScanPipeline(tableName, maxReaders, indexScan, mode);
+			pipeline.keys = TableSnapshot.keyNames(table.getKeySchema());
+			return pipeline;
+		}
+
+		ScanPipeline pipeline = new ScanPipeline(tableName,
+				(int) Math.max(1, Math.min(maxReaders * 4L, (bytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES)), indexScan,
+				mode);
+		pipeline.maxReaders = Math.min(maxReaders, pipeline.segments);
+		pipeline.readers = (int) Math.max(1,
+				Math.min(pipeline.maxReaders, (bytes + READER_BYTES - 1) / READER_BYTES));
+		pipeline.rcu = rcu;
+		pipeline.keys = TableSnapshot.keyNames(table.getKeySchema());
+
+		// an eventually consistent read of 4KB costs half a unit
+		if (rcu > 0) {
+			double pageBytes = rcu * 2 * 4096 * PAGE_SECONDS / pipeline.maxReaders;
+			pipeline.pageLimit = (int) Math.max(1, Math.min(Integer.MAX_VALUE, pageBytes / Math.max(1, bytes / items)));
+		}
+
+		return pipeline;
+	}
+
+	/**
+	 * scan the table, handing each page to the stage on the calling thread as soon as it is read
+	 * @param stage - the downstream consumer
+	 * @return the number of items scanned
+	 */
+	public long run(Stage stage) {
+		long start = System.nanoTime(), ramped = start;
+		int next = 0, active = 0;
+		for (; next < readers; next++, active++)
+			submit(next);
+
+		long count = 0L;
+		int done = 0;
+		try {
+			while (done < segments) {
+				Chunk chunk = queue.take();
+
+				// a chunk without items marks the end of a segment, and frees its reader for the next one
+				if (chunk.items == null) {
+					done++;
+					active--;
+					if (next < segments) {
+						submit(next++);
+						active++;
+					}
+				} else {
+					stage.accept(chunk.segment, chunk.items);
+					count += chunk.count;
+				}
+
+				// add a reader while segments are waiting and the capacity is not yet used
+				long now = System.nanoTime();
+				if (next < segments && active < maxReaders && now - ramped > RAMP_INTERVAL
+						&& (rcu == 0 || cost.getUnits() / ((now - start) / 1e9) < rcu * TARGET_UTILIZATION)) {
+					submit(next++);
+					active++;
+					ramped = now;
+				}
+			}
+		} catch (InterruptedException e) {
+			System.err.println("ERROR: " + e.getMessage());
+			System.exit(1);
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return the number of segments the table was cut into
+	 */
+	public int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * @return the requests and read capacity the scan consumed
+	 */
+	public ReadCost getCost() {
+		return cost;
+	}
+
+	private void submit(int segment) {
+		Main.workers.submit(new RunScan(segment, segments, tableName, indexScan, mode, queue, pageLimit, cost, keys));
+	}
+
+	/**
+	 * a downstream stage of the pipeline
+	 */
+	public interface Stage {
+		void accept(int segment, List<Item> items);
+	}
+
+	/**
+	 * a page of items read by one segment
+	 */
+	public static class Chunk {
+		int segment, count;
+		List<Item> items;
+
+		Chunk(int segment, List<Item> items, int count) {
+			this.segment = segment;
+			this.items = items;
+			this.count = count;
+		}
+	}
+}
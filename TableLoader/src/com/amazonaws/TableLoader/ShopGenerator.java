@@ -0,0 +1,177 @@
+package com.amazonaws.TableLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Seeded generator for the online-shop dataset that spreads customers across threads. Every customer draws from its
+ * own random stream and owns a fixed range of order IDs, so a seed produces the same items whatever the thread count.
+ * @author rickhou
+ *
+ * @param <T> - the representation of an entity
+ */
+public class ShopGenerator<T> {
+	// customers handed to a thread at a time
+	public static final int CHUNK_SIZE = 256;
+	// all dates are offsets from a fixed instant so they do not depend on when the data is generated
+	public static final long EPOCH = 1577880000000L;
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final String[] WAREHOUSES = { "W#0", "W#1" };
+
+	private EntityFactory<T> factory;
+	private int customers, maxOrders, maxItems;
+	private long customerSeed;
+	private String[] productIds;
+	private int[] prices;
+	private List<T> catalog = new ArrayList<T>();
+	// dates[d] is the date d - 1 days before the epoch
+	private String[] dates = new String[32];
+
+	/**
+	 * Constructor
+	 * @param factory - builds the entities
+	 * @param seed - the seed for every random draw
+	 * @param customers - the number of customers
+	 * @param maxOrders - customers place up to this many orders, exclusive
+	 * @param maxItems - orders hold up to this many items, inclusive
+	 * @param products - the number of products
+	 */
+	public ShopGenerator(EntityFactory<T> factory, long seed, int customers, int maxOrders, int maxItems,
+			int products) {
+		this.factory = factory;
+		this.customers = customers;
+		this.maxOrders = Math.max(1, maxOrders);
+		this.maxItems = Math.max(1, maxItems);
+
+		for (int d = 0; d < dates.length; d++)
+			dates[d] = ItemFactory.date(EPOCH - TimeUnit.DAYS.toMillis(d - 1));
+
+		SplittableRandom root = new SplittableRandom(seed);
+		SplittableRandom random = root.split();
+		customerSeed = root.nextLong();
+
+		catalog.add(factory.warehouse(WAREHOUSES[0], "Goteborg", "MainStreet", "41111"));
+		catalog.add(factory.warehouse(WAREHOUSES[1], "Boras", "RiverStreet", "11111"));
+
+		productIds = new String[products];
+		prices = new int[products];
+		for (int p = 0; p < products; p++) {
+			productIds[p] = "P#" + p;
+			String warehouseId = WAREHOUSES[random.nextInt(WAREHOUSES.length)];
+			int qty = random.nextInt(100) + 100;
+			prices[p] = random.nextInt(50) + 10;
+
+			catalog.add(factory.product(productIds[p], warehouseId, qty, prices[p]));
+		}
+	}
+
+	/**
+	 * @return the warehouse and product items
+	 */
+	public List<T> catalog() {
+		return catalog;
+	}
+
+	/**
+	 * @return the number of customer chunks
+	 */
+	public int chunks() {
+		return (customers + CHUNK_SIZE - 1) / CHUNK_SIZE;
+	}
+
+	/**
+	 * generate every customer chunk on the given number of tasks, which pull chunks until none are left
+	 * @param group - the group the tasks run in, awaited by the caller
+	 * @param threads - the number of tasks
+	 * @param sink - receives each chunk, concurrently from several tasks
+	 */
+	public void generate(TaskGroup group, int threads, Sink<T> sink) {
+		AtomicInteger next = new AtomicInteger();
+		for (int t = 0; t < Math.min(threads, chunks()); t++) {
+			group.submit(() -> {
+				int chunk;
+				while ((chunk = next.getAndIncrement()) < chunks())
+					if (!sink.skip(chunk))
+						sink.accept(chunk, chunk(chunk));
+			});
+		}
+	}
+
+	/**
+	 * @param chunk - the chunk number
+	 * @return the items of every customer in the chunk
+	 */
+	public List<T> chunk(int chunk) {
+		List<T> items = new ArrayList<T>();
+		int last = Math.min(customers, (chunk + 1) * CHUNK_SIZE);
+		for (int c = chunk * CHUNK_SIZE; c < last; c++)
+			customer(c, items);
+
+		return items;
+	}
+
+	private void customer(int c, List<T> items) {
+		SplittableRandom random = new SplittableRandom(mix64(customerSeed + c * GOLDEN_GAMMA));
+		String customerId = "C#" + c;
+		items.add(factory.customer(customerId, ItemFactory.randomString(10, random) + "@somewhere.com"));
+
+		int[] product = new int[maxItems], qty = new int[maxItems];
+		int orders = random.nextInt(maxOrders);
+		for (int o = 0; o < orders; o++) {
+			// each customer owns maxOrders order numbers, and invoices and shipments reuse the order number
+			long number = (long) c * maxOrders + o;
+			String orderId = "O#" + number;
+
+			int lines = random.nextInt(maxItems) + 1, amount = 0;
+			for (int i = 0; i < lines; i++) {
+				product[i] = random.nextInt(productIds.length);
+				qty[i] = random.nextInt(5);
+				amount += qty[i] * prices[product[i]];
+
+				items.add(factory.orderItem(orderId, productIds[product[i]] + "#" + i, productIds[product[i]],
+						customerId, dates[1], qty[i], prices[product[i]]));
+			}
+
+			int age = random.nextInt(30);
+			items.add(factory.order(orderId, customerId, dates[age + 1], amount));
+
+			if (random.nextBoolean()) {
+				items.add(factory.invoice(orderId, "I#" + number, customerId, dates[age], amount));
+
+				String shipmentId = "S#" + number;
+				items.add(factory.shipment(orderId, shipmentId, WAREHOUSES[random.nextInt(WAREHOUSES.length)],
+						dates[age], (random.nextBoolean() ? "Express" : "Standard")));
+
+				for (int i = 0; i < lines; i++)
+					items.add(factory.shipItem(orderId, "SI#" + (number * maxItems + i), shipmentId,
+							productIds[product[i]], qty[i]));
+			}
+		}
+	}
+
+	// the SplittableRandom output mix, spreading consecutive customer numbers over unrelated seeds
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+	/**
+	 * Receives generated customer chunks
+	 */
+	public interface Sink<T> {
+		void accept(int chunk, List<T> items);
+
+		/**
+		 * @param chunk - the chunk number
+		 * @return true if the chunk need not be generated, such as when a resumed load already wrote it
+		 */
+		default boolean skip(int chunk) {
+			return false;
+		}
+	}
+}
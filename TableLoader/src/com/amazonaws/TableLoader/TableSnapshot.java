@@ -0,0 +1,158 @@
+package com.amazonaws.TableLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BillingMode;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.LocalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.LocalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.Select;
+import com.amazonaws.services.dynamodbv2.model.StreamSpecification;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+
+/**
+ * The definition of a table captured with DescribeTable, so the table can be emptied by dropping and recreating it
+ * instead of deleting every item. Keys, attribute definitions, indexes with their projections and throughput, the
+ * billing mode and the stream settings are kept; the items, tags, TTL and backups are not.
+ * @author rickhou
+ *
+ */
+public class TableSnapshot {
+	private TableDescription table;
+
+	private TableSnapshot(TableDescription table) {
+		this.table = table;
+	}
+
+	/**
+	 * @param name - the table to describe
+	 * @return the table's current definition
+	 */
+	public static TableSnapshot describe(String name) {
+		return new TableSnapshot(Main.client.describeTable(name).getTable());
+	}
+
+	public String getName() {
+		return table.getTableName();
+	}
+
+	/**
+	 * @return the table's hash key name followed by its range key name, if it has one
+	 */
+	public List<String> getKeyNames() {
+		return keyNames(table.getKeySchema());
+	}
+
+	/**
+	 * @param schema - a key schema
+	 * @return the hash key name followed by the range key name, if there is one
+	 */
+	public static List<String> keyNames(List<KeySchemaElement> schema) {
+		List<String> names = new ArrayList<String>(2);
+		for (KeySchemaElement key : schema)
+			if (KeyType.HASH.toString().equals(key.getKeyType()))
+				names.add(0, key.getAttributeName());
+			else
+				names.add(key.getAttributeName());
+
+		return names;
+	}
+
+	/**
+	 * estimate whether the table holds more than a number of items. DynamoDB refreshes the item count about every
+	 * six hours, so a count at or below the limit is checked with COUNT scan pages until more than limit items are
+	 * counted or the table ends. A page stops at 1MB, so large items may take several pages.
+	 * @param limit - the number of items
+	 * @return true if the table holds more than limit items
+	 */
+	public boolean exceeds(int limit) {
+		if (table.getItemCount() != null && table.getItemCount() > limit)
+			return true;
+
+		long counted = 0;
+		Map<String, AttributeValue> start = null;
+		do {
+			ScanResult result = Main.client.scan(new ScanRequest().withTableName(getName()).withSelect(Select.COUNT)
+					.withLimit((int) (limit + 1 - counted)).withExclusiveStartKey(start).withConsistentRead(true));
+			counted += result.getCount();
+			start = result.getLastEvaluatedKey();
+		} while (counted <= limit && start != null);
+
+		return counted > limit;
+	}
+
+	/**
+	 * drop every table in the list and create it again from its snapshot. All the tables are deleted before any is
+	 * created, so the whole reset takes about as long as the slowest table rather than the sum of them.
+	 * @param snapshots - the tables to recreate
+	 * @throws InterruptedException - interrupted while waiting for a table
+	 */
+	public static void recreate(List<TableSnapshot> snapshots) throws InterruptedException {
+		for (TableSnapshot snapshot : snapshots)
+			Main.client.deleteTable(snapshot.getName());
+
+		for (TableSnapshot snapshot : snapshots)
+			Main.db.getTable(snapshot.getName()).waitForDelete();
+
+		for (TableSnapshot snapshot : snapshots)
+			Main.client.createTable(snapshot.toCreateRequest());
+
+		// indexes defined in CreateTable are active once their table is
+		for (TableSnapshot snapshot : snapshots)
+			Main.db.getTable(snapshot.getName()).waitForActive();
+	}
+
+	/**
+	 * @return a request that creates the table as it was described
+	 */
+	public CreateTableRequest toCreateRequest() {
+		boolean onDemand = table.getBillingModeSummary() != null
+				&& BillingMode.PAY_PER_REQUEST.toString().equals(table.getBillingModeSummary().getBillingMode());
+
+		CreateTableRequest request = new CreateTableRequest().withTableName(getName())
+				.withKeySchema(table.getKeySchema()).withAttributeDefinitions(table.getAttributeDefinitions());
+		if (onDemand)
+			request.withBillingMode(BillingMode.PAY_PER_REQUEST);
+		else
+			request.withProvisionedThroughput(throughput(table.getProvisionedThroughput()));
+
+		if (table.getGlobalSecondaryIndexes() != null) {
+			List<GlobalSecondaryIndex> gsis = new ArrayList<GlobalSecondaryIndex>();
+			for (GlobalSecondaryIndexDescription index : table.getGlobalSecondaryIndexes())
+				gsis.add(new GlobalSecondaryIndex().withIndexName(index.getIndexName())
+						.withKeySchema(index.getKeySchema()).withProjection(index.getProjection())
+						.withProvisionedThroughput(onDemand ? null : throughput(index.getProvisionedThroughput())));
+			request.withGlobalSecondaryIndexes(gsis);
+		}
+
+		if (table.getLocalSecondaryIndexes() != null) {
+			List<LocalSecondaryIndex> lsis = new ArrayList<LocalSecondaryIndex>();
+			for (LocalSecondaryIndexDescription index : table.getLocalSecondaryIndexes())
+				lsis.add(new LocalSecondaryIndex().withIndexName(index.getIndexName())
+						.withKeySchema(index.getKeySchema()).withProjection(index.getProjection()));
+			request.withLocalSecondaryIndexes(lsis);
+		}
+
+		StreamSpecification stream = table.getStreamSpecification();
+		if (stream != null && Boolean.TRUE.equals(stream.getStreamEnabled()))
+			request.withStreamSpecification(stream);
+
+		return request;
+	}
+
+	// the description carries counters such as decreases today that a create request does not accept
+	private static ProvisionedThroughput throughput(ProvisionedThroughputDescription description) {
+		return new ProvisionedThroughput(description.getReadCapacityUnits(), description.getWriteCapacityUnits());
+	}
+}
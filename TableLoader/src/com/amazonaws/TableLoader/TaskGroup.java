@@ -0,0 +1,136 @@
+package com.amazonaws.TableLoader;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks a phase of tasks running on an executor and signals the instant the last one completes
+ * @author rickhou
+ *
+ */
+public class TaskGroup {
+	private static ThreadLocal<TaskGroup> current = new ThreadLocal<TaskGroup>();
+
+	private final Executor executor;
+	// outstanding tasks plus one for the owner until it waits on the phase
+	private final AtomicLong pending = new AtomicLong(1);
+	private final AtomicLong lastDone = new AtomicLong(System.nanoTime());
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private volatile CompletableFuture<Long> phase = new CompletableFuture<Long>();
+
+	/**
+	 * Constructor
+	 * @param executor - the executor the tasks run on
+	 */
+	public TaskGroup(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the group of the task running on this thread, or null
+	 */
+	public static TaskGroup current() {
+		return current.get();
+	}
+
+	/**
+	 * run a task as part of the current phase
+	 * @param task - the task
+	 */
+	public void submit(Runnable task) {
+		pending.incrementAndGet();
+		try {
+			executor.execute(() -> {
+				// a bounded executor may run the task inside another group's task on the same thread
+				TaskGroup outer = current.get();
+				current.set(this);
+				try {
+					task.run();
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				} finally {
+					if (outer != null)
+						current.set(outer);
+					else
+						current.remove();
+					arrive(1);
+				}
+			});
+		} catch (RuntimeException ex) {
+			arrive(1);
+			throw ex;
+		}
+	}
+
+	/**
+	 * include an asynchronous operation in the current phase
+	 * @param future - the operation
+	 */
+	public void track(CompletableFuture<?> future) {
+		pending.incrementAndGet();
+		future.whenComplete((result, t) -> {
+			if (t != null)
+				failure.compareAndSet(null, t);
+
+			arrive(1);
+		});
+	}
+
+	/**
+	 * keep the current phase open for work that will be submitted later
+	 * @param count - the number of units of deferred work
+	 */
+	public void hold(int count) {
+		pending.addAndGet(count);
+	}
+
+	/**
+	 * release deferred work registered with hold
+	 * @param count - the number of units of deferred work completed
+	 */
+	public void release(int count) {
+		arrive(count);
+	}
+
+	private void arrive(int count) {
+		lastDone.accumulateAndGet(System.nanoTime(), Math::max);
+		if (pending.addAndGet(-count) == 0)
+			phase.complete(lastDone.get());
+	}
+
+	/**
+	 * wait for every task of the current phase to finish, then start a new phase
+	 * @param printChar - progress character to print while waiting
+	 * @return the wall clock time in ms at which the last task completed
+	 */
+	public long await(String printChar) {
+		CompletableFuture<Long> waiting = phase;
+		arrive(1);
+
+		Long done = null;
+		while (done == null) {
+			try {
+				done = waiting.get(100, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				System.out.print(printChar);
+			} catch (InterruptedException | ExecutionException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		// the owner rejoins for the next phase
+		phase = new CompletableFuture<Long>();
+		pending.set(1);
+
+		Throwable t = failure.getAndSet(null);
+		if (t != null)
+			throw new RuntimeException(t);
+
+		return System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - done);
+	}
+}
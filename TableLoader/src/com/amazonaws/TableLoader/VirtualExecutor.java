@@ -0,0 +1,50 @@
+package com.amazonaws.TableLoader;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs each task on its own virtual thread, with a semaphore capping how many run at once
+ * @author rickhou
+ *
+ */
+public class VirtualExecutor implements Executor {
+	private ExecutorService delegate;
+	private Semaphore permits;
+
+	/**
+	 * Constructor
+	 * @param maxConcurrency - the maximum number of tasks running at once
+	 */
+	public VirtualExecutor(int maxConcurrency) {
+		this.permits = new Semaphore(maxConcurrency);
+
+		// resolved reflectively so the default Java 8 build still runs on a JDK with virtual threads
+		try {
+			delegate = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			throw new UnsupportedOperationException("Virtual threads require JDK 21 or later.", ex);
+		}
+	}
+
+	/**
+	 * start the task on a new virtual thread, which parks until a permit is free
+	 */
+	@Override
+	public void execute(Runnable task) {
+		delegate.execute(() -> {
+			permits.acquireUninterruptibly();
+			try {
+				task.run();
+			} finally {
+				permits.release();
+			}
+		});
+	}
+
+	public void shutdown() {
+		delegate.shutdown();
+	}
+}
@@ -0,0 +1,390 @@
+package com.amazonaws.TableLoader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Mixed read/write traffic against the single table model of the online shop, drawn from a weighted mix of
+ * operations. Open loop issues operations at a fixed arrival rate whether or not earlier ones finished, and measures
+ * latency from when each was due. Closed loop runs a fixed number of clients that each issue the next operation as
+ * soon as the previous one completes. Operations issued during the warmup are not measured.
+ * @author rickhou
+ *
+ */
+public class Workload {
+	private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+	/**
+	 * The operations of the mix
+	 */
+	public enum Op {
+		// write an order and its order items
+		PLACE("place"),
+		// query every item of an order
+		GET("get"),
+		// query a customer's order items and invoices of a week on GSI2
+		ORDERS("orders"),
+		// query a shipment and its items on GSI1
+		SHIPS("ships"),
+		// add to or take from the stock of a product
+		STOCK("stock");
+
+		private String setting;
+
+		Op(String setting) {
+			this.setting = setting;
+		}
+	}
+
+	private String table;
+	private int maxItems;
+	private long rate, clients, warmup, duration;
+	private Map<Op, Integer> mix = new LinkedHashMap<Op, Integer>();
+	private int totalWeight;
+	private AttributeFactory factory = new AttributeFactory();
+
+	// the keys the operations draw from, with orders placed during the run added as they are written
+	private List<String> orders = new ArrayList<String>(), customers = new ArrayList<String>(),
+			shipments = new ArrayList<String>();
+	private List<String[]> products = new ArrayList<String[]>();
+	private AtomicLong nextOrder;
+	// orders placed during the run are dated when they are written, long after the loaded dataset's dates
+	private LongAdder placed = new LongAdder();
+
+	private Map<Op, LatencyHistogram> latency = new LinkedHashMap<Op, LatencyHistogram>();
+	private Map<Op, LongAdder> errors = new HashMap<Op, LongAdder>();
+	private volatile long measureFrom, end;
+
+	/**
+	 * Constructor
+	 * @param table - the single table
+	 * @param settings - rate, clients, warmup and duration in seconds, and the weight of each operation
+	 * @param customers - the number of customers loaded, orders are numbered above theirs
+	 * @param maxOrders - customers place up to this many orders, exclusive
+	 * @param maxItems - orders hold up to this many items, inclusive
+	 */
+	public Workload(String table, Map<String, String> settings, int customers, int maxOrders, int maxItems) {
+		this.table = table;
+		this.maxItems = Math.max(1, Math.min(24, maxItems));
+		this.nextOrder = new AtomicLong((long) customers * Math.max(1, maxOrders));
+
+		rate = 100;
+		clients = 0;
+		warmup = 10;
+		duration = 60;
+		int[] weights = { 10, 50, 20, 10, 10 };
+		for (Op op : Op.values())
+			mix.put(op, weights[op.ordinal()]);
+
+		for (Map.Entry<String, String> setting : settings.entrySet()) {
+			long value;
+			try {
+				value = Long.parseLong(setting.getValue());
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException(
+						String.format("Workload setting [%s] is not a number.", setting.getKey()));
+			}
+			if (value < 0)
+				throw new IllegalArgumentException(
+						String.format("Workload setting [%s] cannot be negative.", setting.getKey()));
+
+			switch (setting.getKey()) {
+			case "rate":
+				rate = value;
+				break;
+			case "clients":
+				clients = value;
+				break;
+			case "warmup":
+				warmup = value;
+				break;
+			case "duration":
+				duration = value;
+				break;
+			default:
+				Op op = null;
+				for (Op candidate : Op.values())
+					if (candidate.setting.equals(setting.getKey()))
+						op = candidate;
+				if (op == null)
+					throw new IllegalArgumentException(
+							String.format("Unknown workload setting [%s].", setting.getKey()));
+				mix.put(op, (int) value);
+			}
+		}
+
+		// a client count switches to closed loop, which issues as fast as the clients allow
+		if (clients > 0 && settings.containsKey("rate"))
+			throw new IllegalArgumentException("A closed loop workload [clients] cannot have a rate.");
+		if (clients == 0 && rate == 0)
+			throw new IllegalArgumentException("An open loop workload needs a rate above 0.");
+		if (clients == 0 && TimeUnit.SECONDS.toNanos(1) / rate == 0)
+			throw new IllegalArgumentException(String.format("An open loop workload cannot issue more than %d ops/s.",
+					TimeUnit.SECONDS.toNanos(1)));
+
+		for (Op op : Op.values()) {
+			totalWeight += mix.get(op);
+			latency.put(op, new LatencyHistogram());
+			errors.put(op, new LongAdder());
+		}
+		if (totalWeight == 0)
+			throw new IllegalArgumentException("The workload mix has no operations.");
+	}
+
+	/**
+	 * @return the number of closed loop clients, or 0 for open loop
+	 */
+	public long getClients() {
+		return clients;
+	}
+
+	/**
+	 * collect the keys of the loaded customers, orders, shipments and products with a key-only scan
+	 * @param maxReaders - the most segments read at once
+	 * @return the number of keys scanned
+	 */
+	public long discover(int maxReaders) {
+		long count = ScanPipeline.adaptive(table, false, RunScan.Mode.KEYS, maxReaders).run((segment, items) -> {
+			for (Item item : items) {
+				String pk = item.getString("PK"), sk = item.getString("SK");
+				if (pk.startsWith("O#") && sk.startsWith("C#"))
+					orders.add(pk);
+				else if (pk.startsWith("C#") && pk.equals(sk))
+					customers.add(pk);
+				else if (sk.startsWith("S#"))
+					shipments.add(sk);
+				else if (pk.startsWith("P#"))
+					products.add(new String[] { pk, sk });
+			}
+		});
+
+		if (customers.isEmpty() || products.isEmpty())
+			throw new IllegalStateException(String.format("Table [%s] holds no customers or products.", table));
+
+		orders = Collections.synchronizedList(orders);
+		return count;
+	}
+
+	/**
+	 * @return a description of the keys discovered
+	 */
+	public String keys() {
+		return String.format("%d customers, %d orders, %d shipments and %d products", customers.size(),
+				orders.size(), shipments.size(), products.size());
+	}
+
+	/**
+	 * run the warmup and the measured period, returning once every operation issued has completed
+	 * @param group - the group the operations run in
+	 * @param printChar - progress character printed each second
+	 */
+	public void run(TaskGroup group, String printChar) {
+		long start = System.nanoTime();
+		measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+		end = measureFrom + TimeUnit.SECONDS.toNanos(duration);
+
+		if (clients > 0) {
+			for (int c = 0; c < clients; c++)
+				group.submit(() -> {
+					long now;
+					while ((now = System.nanoTime()) < end)
+						execute(next(), now);
+				});
+
+			// closed loop clients stop themselves at the end of the run
+			while (System.nanoTime() < end) {
+				LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+				System.out.print(printChar);
+			}
+			return;
+		}
+
+		// each operation is due at a set offset from the start, whether or not earlier ones finished
+		long interval = TimeUnit.SECONDS.toNanos(1) / rate, intended = start, tick = start;
+		while (intended < end) {
+			long wait;
+			while ((wait = intended - System.nanoTime()) > 0)
+				LockSupport.parkNanos(wait);
+
+			long due = intended;
+			Op op = next();
+			group.submit(() -> execute(op, due));
+			intended += interval;
+
+			if (intended - tick >= TimeUnit.SECONDS.toNanos(1)) {
+				tick = intended;
+				System.out.print(printChar);
+			}
+		}
+	}
+
+	/**
+	 * @return one line per operation with its throughput, latency and errors over the measured period
+	 */
+	public List<String> report() {
+		List<String> lines = new ArrayList<String>();
+		for (Op op : Op.values()) {
+			if (mix.get(op) == 0)
+				continue;
+
+			LatencyHistogram histogram = latency.get(op);
+			lines.add(String.format("%-6s %.1f ops/s errors=%d latency %s", op.setting,
+					histogram.getCount() / (double) Math.max(1, duration), errors.get(op).sum(),
+					histogram.summary()));
+		}
+
+		return lines;
+	}
+
+	/**
+	 * @return the scheduling, mix and timing of the workload
+	 */
+	public String describe() {
+		List<String> weights = new ArrayList<String>();
+		for (Map.Entry<Op, Integer> entry : mix.entrySet())
+			weights.add(entry.getKey().setting + "=" + entry.getValue());
+
+		return String.format("%s, mix %s, %ds warmup and %ds measured",
+				(clients > 0 ? String.format("closed loop with %d clients", clients)
+						: String.format("open loop at %d ops/s", rate)),
+				String.join(",", weights), warmup, duration);
+	}
+
+	private Op next() {
+		int draw = ThreadLocalRandom.current().nextInt(totalWeight);
+		for (Op op : Op.values()) {
+			draw -= mix.get(op);
+			if (draw < 0)
+				return op;
+		}
+
+		return Op.GET;
+	}
+
+	// run one operation, measuring from when it was due so queueing delay is not omitted
+	private void execute(Op op, long due) {
+		try {
+			switch (op) {
+			case PLACE:
+				placeOrder();
+				break;
+			case GET:
+				query(new QueryRequest().withKeyConditionExpression("PK = :pk")
+						.addExpressionAttributeValuesEntry(":pk", new AttributeValue(pick(orders))));
+				break;
+			case ORDERS:
+				long from = weekFrom();
+				query(new QueryRequest().withIndexName("GSI2")
+						.withKeyConditionExpression("GSI2PK = :pk AND GSI2SK BETWEEN :from AND :to")
+						.addExpressionAttributeValuesEntry(":pk", new AttributeValue(pick(customers)))
+						.addExpressionAttributeValuesEntry(":from", new AttributeValue(ItemFactory.date(from)))
+						.addExpressionAttributeValuesEntry(":to",
+								new AttributeValue(ItemFactory.date(from + 7 * DAY))));
+				break;
+			case SHIPS:
+				query(new QueryRequest().withIndexName("GSI1").withKeyConditionExpression("GSI1PK = :pk")
+						.addExpressionAttributeValuesEntry(":pk", new AttributeValue(pick(shipments))));
+				break;
+			case STOCK:
+				String[] product = products.get(ThreadLocalRandom.current().nextInt(products.size()));
+				Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+				key.put("PK", new AttributeValue(product[0]));
+				key.put("SK", new AttributeValue(product[1]));
+				Main.client.updateItem(new UpdateItemRequest().withTableName(table).withKey(key)
+						.withUpdateExpression("ADD qty :delta")
+						.addExpressionAttributeValuesEntry(":delta", new AttributeValue()
+								.withN(Integer.toString(ThreadLocalRandom.current().nextInt(-5, 6))))
+						.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL));
+				break;
+			}
+
+			if (due >= measureFrom && due < end)
+				latency.get(op).record(System.nanoTime() - due);
+		} catch (AmazonClientException ex) {
+			if (due >= measureFrom && due < end)
+				errors.get(op).increment();
+		}
+	}
+
+	// the start of a week of orders: the last week for an order placed during the run, otherwise a week in the month
+	// before the generator's epoch that the loaded orders are dated in, in proportion to how many orders each holds
+	private long weekFrom() {
+		int total = orders.size();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (total > 0 && random.nextLong(total) < placed.sum())
+			return System.currentTimeMillis() - 7 * DAY;
+
+		return ShopGenerator.EPOCH - random.nextInt(30) * DAY;
+	}
+
+	private String pick(List<String> keys) {
+		// a mix can ask for shipments of a dataset without any, which reads an empty partition
+		synchronized (keys) {
+			return (keys.isEmpty() ? "none" : keys.get(ThreadLocalRandom.current().nextInt(keys.size())));
+		}
+	}
+
+	// read every page of the query
+	private void query(QueryRequest request) {
+		request.withTableName(table).withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+		QueryResult result;
+		do {
+			result = Main.client.query(request);
+			request.setExclusiveStartKey(result.getLastEvaluatedKey());
+		} while (result.getLastEvaluatedKey() != null && !result.getLastEvaluatedKey().isEmpty());
+	}
+
+	// write an order and its items in one batch, retrying what comes back unprocessed
+	private void placeOrder() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String orderId = "O#" + nextOrder.getAndIncrement(), customerId = pick(customers),
+				date = ItemFactory.date(System.currentTimeMillis());
+
+		List<WriteRequest> requests = new ArrayList<WriteRequest>();
+		int lines = random.nextInt(maxItems) + 1, amount = 0;
+		for (int i = 0; i < lines; i++) {
+			String productId = products.get(random.nextInt(products.size()))[0];
+			int qty = random.nextInt(5) + 1, price = random.nextInt(50) + 10;
+			amount += qty * price;
+			requests.add(new WriteRequest(new PutRequest(
+					factory.orderItem(orderId, productId + "#" + i, productId, customerId, date, qty, price))));
+		}
+		requests.add(new WriteRequest(new PutRequest(factory.order(orderId, customerId, date, amount))));
+
+		Map<String, List<WriteRequest>> unprocessed = Collections.singletonMap(table, requests);
+		long backoff = RunBatchGet.BACKOFF;
+		while (!unprocessed.isEmpty()) {
+			BatchWriteItemResult result = Main.client.batchWriteItem(new BatchWriteItemRequest()
+					.withRequestItems(unprocessed).withReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES));
+			unprocessed = result.getUnprocessedItems();
+			if (!unprocessed.isEmpty()) {
+				LockSupport.parkNanos(backoff);
+				backoff = Math.min(2 * backoff, RunBatchGet.MAX_BACKOFF);
+			}
+		}
+
+		orders.add(orderId);
+		placed.increment();
+	}
+}
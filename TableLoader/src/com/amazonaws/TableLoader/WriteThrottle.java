@@ -0,0 +1,233 @@
+package com.amazonaws.TableLoader;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.Capacity;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Lock-free token bucket that meters batch writes against the provisioned WCU of a table
+ * @author rickhou
+ *
+ */
+public class WriteThrottle {
+	private static final long BURST = TimeUnit.SECONDS.toNanos(1);
+	private static Map<String, WriteThrottle> throttles = new ConcurrentHashMap<String, WriteThrottle>();
+
+	// the instant at which the next unit of write capacity becomes available
+	private final AtomicLong next = new AtomicLong(System.nanoTime());
+	private final long rate;
+	private final double nanosPerUnit;
+
+	/**
+	 * Constructor
+	 * @param rate - write capacity units per second, 0 for unmetered
+	 */
+	public WriteThrottle(long rate) {
+		this.rate = rate;
+		this.nanosPerUnit = (rate > 0 ? (double) TimeUnit.SECONDS.toNanos(1) / rate : 0);
+	}
+
+	/**
+	 * get the shared throttle for a table, sized from its provisioned throughput
+	 * @param name - the table name
+	 * @return the throttle
+	 */
+	public static WriteThrottle forTable(String name) {
+		return throttles.computeIfAbsent(name, key -> new WriteThrottle(provisionedWCU(key)));
+	}
+
+	// the table WCU, or the smallest GSI WCU if lower since every put propagates to the indexes
+	private static long provisionedWCU(String name) {
+		TableDescription desc = Main.db.getTable(name).describe();
+		long wcu = desc.getProvisionedThroughput().getWriteCapacityUnits();
+
+		if (desc.getGlobalSecondaryIndexes() != null)
+			for (GlobalSecondaryIndexDescription gsi : desc.getGlobalSecondaryIndexes())
+				wcu = Math.min(wcu, gsi.getProvisionedThroughput().getWriteCapacityUnits());
+
+		return wcu;
+	}
+
+	/**
+	 * reserve write capacity and block until it is available
+	 * @param units - the write capacity units to reserve
+	 */
+	public void acquire(double units) {
+		if (rate <= 0)
+			return;
+
+		long cost = (long) (units * nanosPerUnit), now, prev, start;
+		do {
+			now = System.nanoTime();
+			prev = next.get();
+
+			// unused capacity accumulates for at most one second
+			start = Math.max(prev, now - BURST);
+		} while (!next.compareAndSet(prev, start + cost));
+
+		while ((now = System.nanoTime()) < start)
+			LockSupport.parkNanos(start - now);
+	}
+
+	/**
+	 * correct a reservation with the capacity DynamoDB reported as consumed
+	 * @param units - the write capacity units that were reserved
+	 * @param result - the batch write result, requested with ReturnConsumedCapacity.INDEXES
+	 * @param table - the table the reservation was made for
+	 */
+	public void reconcile(double units, BatchWriteItemResult result, String table) {
+		if (rate <= 0 || result.getConsumedCapacity() == null)
+			return;
+
+		for (ConsumedCapacity cc : result.getConsumedCapacity()) {
+			if (!table.equals(cc.getTableName()))
+				continue;
+
+			// the table and each GSI have their own bucket so the busiest one sets the pace
+			double consumed = (cc.getTable() != null ? cc.getTable().getCapacityUnits() : cc.getCapacityUnits());
+			if (cc.getGlobalSecondaryIndexes() != null)
+				for (Capacity gsi : cc.getGlobalSecondaryIndexes().values())
+					consumed = Math.max(consumed, gsi.getCapacityUnits());
+
+			next.addAndGet((long) ((consumed - units) * nanosPerUnit));
+		}
+	}
+
+	/**
+	 * estimate the write capacity units a batch will consume
+	 * @param items - the batch
+	 * @return the estimated WCU
+	 */
+	public static double units(TableWriteItems items) {
+		double units = 0;
+
+		if (items.getItemsToPut() != null)
+			for (Item item : items.getItemsToPut())
+				units += units(size(item.asMap()));
+
+		// a delete costs the size of the deleted item, feedback corrects the estimate
+		if (items.getPrimaryKeysToDelete() != null)
+			units += items.getPrimaryKeysToDelete().size();
+
+		return units;
+	}
+
+	/**
+	 * estimate the write capacity units a list of low level write requests will consume
+	 * @param requests - the write requests
+	 * @return the estimated WCU
+	 */
+	public static double units(List<WriteRequest> requests) {
+		double units = 0;
+
+		if (requests != null)
+			for (WriteRequest request : requests)
+				units += (request.getPutRequest() != null ? units(sizeOf(request.getPutRequest().getItem())) : 1);
+
+		return units;
+	}
+
+	private static int units(long size) {
+		return (int) Math.max(1, (size + 1023) / 1024);
+	}
+
+	// DynamoDB item size: attribute names plus values
+	private static long size(Map<String, Object> attributes) {
+		long size = 0;
+		for (Map.Entry<String, Object> entry : attributes.entrySet())
+			size += utf8(entry.getKey()) + size(entry.getValue());
+
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static long size(Object value) {
+		if (value == null || value instanceof Boolean)
+			return 1;
+		else if (value instanceof String)
+			return utf8((String) value);
+		else if (value instanceof Number)
+			return number(value.toString());
+		else if (value instanceof byte[])
+			return ((byte[]) value).length;
+		else if (value instanceof ByteBuffer)
+			return ((ByteBuffer) value).remaining();
+		else if (value instanceof Map)
+			return 3 + size((Map<String, Object>) value);
+		else if (value instanceof Collection) {
+			long size = 3;
+			for (Object element : (Collection<Object>) value)
+				size += 1 + size(element);
+
+			return size;
+		}
+
+		return utf8(value.toString());
+	}
+
+	static long sizeOf(Map<String, AttributeValue> attributes) {
+		long size = 0;
+		for (Map.Entry<String, AttributeValue> entry : attributes.entrySet())
+			size += utf8(entry.getKey()) + sizeOf(entry.getValue());
+
+		return size;
+	}
+
+	private static long sizeOf(AttributeValue value) {
+		long size = 0;
+
+		if (value.getS() != null)
+			return utf8(value.getS());
+		else if (value.getN() != null)
+			return number(value.getN());
+		else if (value.getB() != null)
+			return value.getB().remaining();
+		else if (value.getM() != null)
+			return 3 + sizeOf(value.getM());
+		else if (value.getL() != null) {
+			for (AttributeValue element : value.getL())
+				size += 1 + sizeOf(element);
+			return 3 + size;
+		} else if (value.getSS() != null) {
+			for (String element : value.getSS())
+				size += utf8(element);
+			return size;
+		} else if (value.getNS() != null) {
+			for (String element : value.getNS())
+				size += number(element);
+			return size;
+		} else if (value.getBS() != null) {
+			for (ByteBuffer element : value.getBS())
+				size += element.remaining();
+			return size;
+		}
+
+		return 1;
+	}
+
+	// numbers are stored as up to 38 significant digits, two per byte
+	private static long number(String value) {
+		return 1 + (new BigDecimal(value).precision() + 1) / 2;
+	}
+
+	private static long utf8(String value) {
+		return value.getBytes(StandardCharsets.UTF_8).length;
+	}
+}
@@ -0,0 +1,188 @@
+package com.amazonaws.TableLoader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Imports files whose records straddle the end of a split and checks every record is read once and intact
+ * @author rickhou
+ *
+ */
+public class FileImportTest {
+	private static final String NOTE = "x, \"y\" ";
+
+	private List<Path> files = new ArrayList<Path>();
+
+	@After
+	public void delete() throws IOException {
+		for (Path file : files)
+			Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void csvSplitBetweenCarriageReturnAndLineFeed() throws IOException {
+		Records records = csv();
+		records.fillTo(FileImport.SPLIT_BYTES + 1);
+		records.add(100, 0);
+
+		check(records, FileImport.Format.CSV);
+	}
+
+	@Test
+	public void csvRecordStartingAtSplit() throws IOException {
+		Records records = csv();
+		records.fillTo(FileImport.SPLIT_BYTES);
+		records.add(100, 0);
+
+		check(records, FileImport.Format.CSV);
+	}
+
+	@Test
+	public void csvRecordLongerThanTail() throws IOException {
+		Records records = csv();
+		records.fillTo(FileImport.SPLIT_BYTES - 1000);
+		records.add(1, (int) (2 * FileImport.TAIL_BYTES));
+		records.add(100, 0);
+
+		check(records, FileImport.Format.CSV);
+	}
+
+	@Test
+	public void jsonRecordStraddlingSplit() throws IOException {
+		Records records = json();
+		records.fillTo(FileImport.SPLIT_BYTES + 500);
+		records.add(100, 0);
+
+		check(records, FileImport.Format.JSON);
+	}
+
+	@Test
+	public void jsonRecordLongerThanTail() throws IOException {
+		Records records = json();
+		records.fillTo(FileImport.SPLIT_BYTES - 1000);
+		records.add(1, (int) (2 * FileImport.TAIL_BYTES));
+		records.add(100, 0);
+
+		check(records, FileImport.Format.JSON);
+	}
+
+	// CRLF lines with a quoted field holding a comma and a doubled quote
+	private Records csv() throws IOException {
+		Records records = new Records((id, pad) -> String.format("%d,\"%s%s\",%d\r\n", id,
+				NOTE.replace("\"", "\"\""), pad, id));
+		records.write("id:N,note,count:N\r\n");
+		return records;
+	}
+
+	private Records json() throws IOException {
+		return new Records((id, pad) -> String.format("{\"id\":%d,\"note\":\"%s%s\",\"count\":%d}\n", id,
+				NOTE.replace("\"", "\\\""), pad, id));
+	}
+
+	// import the file on several threads and check each record arrived once with its fields intact
+	private void check(Records records, FileImport.Format format) throws IOException {
+		records.close();
+
+		List<Map<String, AttributeValue>> items = Collections.synchronizedList(
+				new ArrayList<Map<String, AttributeValue>>());
+		LoadPipeline<Map<String, AttributeValue>> pipeline =
+				new LoadPipeline<Map<String, AttributeValue>>(null, null, "test", false, 1, null) {
+					@Override
+					public void accept(int chunk, List<Map<String, AttributeValue>> chunkItems) {
+						items.addAll(chunkItems);
+					}
+				};
+
+		FileImport job = new FileImport(Collections.singletonMap("test", pipeline));
+		job.add(records.path.toString(), "test", format);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			TaskGroup group = new TaskGroup(executor);
+			job.run(group, 4);
+			group.await("");
+		} finally {
+			executor.shutdown();
+			job.close();
+		}
+
+		assertEquals(records.count, job.getRecords());
+		assertEquals(records.count, items.size());
+
+		int[] seen = new int[records.count];
+		for (Map<String, AttributeValue> item : items) {
+			String id = item.get("id").getN();
+			seen[Integer.parseInt(id)]++;
+			assertEquals(id, item.get("count").getN());
+			assertTrue(item.get("note").getS().startsWith(NOTE));
+		}
+		for (int id = 0; id < seen.length; id++)
+			assertEquals("record " + id, 1, seen[id]);
+	}
+
+	// writes numbered records to a temporary file, each padded to a chosen length
+	private class Records {
+		BiFunction<Integer, String, String> format;
+		Path path;
+		OutputStream out;
+		long offset;
+		int count;
+
+		Records(BiFunction<Integer, String, String> format) throws IOException {
+			this.format = format;
+			this.path = Files.createTempFile("FileImportTest", ".data");
+			this.out = new BufferedOutputStream(Files.newOutputStream(path));
+			files.add(path);
+		}
+
+		void write(String text) throws IOException {
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+			out.write(bytes);
+			offset += bytes.length;
+		}
+
+		// add records with the given padding
+		void add(int records, int pad) throws IOException {
+			for (int i = 0; i < records; i++)
+				write(format.apply(count++, pad(pad)));
+		}
+
+		// add records of about 1000 bytes, the last padded so that it ends exactly at the offset
+		void fillTo(long end) throws IOException {
+			while (offset + 2000 < end)
+				add(1, 1000 - format.apply(count, "").length());
+
+			write(format.apply(count, pad((int) (end - offset - format.apply(count, "").length()))));
+			count++;
+		}
+
+		String pad(int length) {
+			char[] pad = new char[length];
+			Arrays.fill(pad, 'z');
+			return new String(pad);
+		}
+
+		void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.amazonaws.TableLoader.bench;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amazonaws.TableLoader.ItemFactory;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Items per second on one core through 25 item batch assembly and the Item to AttributeValue conversion
+ * DynamoDB.batchWriteItem performs on every call
+ * @author rickhou
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class BatchBenchmark {
+	private static final int BATCH_SIZE = 25;
+
+	private List<Item> items = new ArrayList<Item>();
+
+	@Setup
+	public void setup() {
+		String date = ItemFactory.date(System.currentTimeMillis());
+		for (int i = 0; i < BATCH_SIZE; i++)
+			items.add(ItemFactory.orderItem("O#1", "P#7#" + i, "P#7", "C#1", date, i % 5, BigDecimal.valueOf(42)));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public TableWriteItems assemble() {
+		TableWriteItems twi = new TableWriteItems("data");
+		for (Item item : items)
+			twi.addItemToPut(item);
+
+		return twi;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void toWire(Blackhole bh) {
+		List<WriteRequest> requests = new ArrayList<WriteRequest>(BATCH_SIZE);
+		for (Item item : items) {
+			Map<String, AttributeValue> map = ItemUtils.toAttributeValues(item);
+			requests.add(new WriteRequest(new PutRequest(map)));
+		}
+
+		bh.consume(requests);
+	}
+}
@@ -0,0 +1,91 @@
+package com.amazonaws.TableLoader.bench;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.TableLoader.ItemFactory;
+import com.amazonaws.services.dynamodbv2.document.Item;
+
+/**
+ * Items constructed per second on one core for each entity type of the online-shop and index-lag demos
+ * @author rickhou
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class ItemFactoryBenchmark {
+	private static final BigDecimal PRICE = BigDecimal.valueOf(42);
+
+	private Random random;
+	private String payload;
+	private long now;
+	private int id;
+
+	@Setup
+	public void setup() {
+		random = new Random(42);
+		payload = ItemFactory.payload(1024);
+		now = System.currentTimeMillis();
+	}
+
+	@Benchmark
+	public Item data() {
+		int n = id++;
+		return ItemFactory.data("Shard_" + (n % 100), "Shard_" + (n % 100), payload);
+	}
+
+	@Benchmark
+	public Item customer() {
+		return ItemFactory.customer("C#" + id++, ItemFactory.randomString(10, random) + "@somewhere.com");
+	}
+
+	@Benchmark
+	public Item order() {
+		return ItemFactory.order("O#" + id++, "C#1", ItemFactory.date(now), random.nextInt(500));
+	}
+
+	@Benchmark
+	public Item orderItem() {
+		String date = ItemFactory.date(now);
+		return ItemFactory.orderItem("O#1", "P#7#" + id++, "P#7", "C#1", date, random.nextInt(5), PRICE);
+	}
+
+	@Benchmark
+	public Item invoice() {
+		return ItemFactory.invoice("O#1", "I#" + id++, "C#1", ItemFactory.date(now), random.nextInt(500));
+	}
+
+	@Benchmark
+	public Item shipment() {
+		return ItemFactory.shipment("O#1", "S#" + id++, "W#0", ItemFactory.date(now),
+				(random.nextBoolean() ? "Express" : "Standard"));
+	}
+
+	@Benchmark
+	public Item shipItem() {
+		return ItemFactory.shipItem("O#1", "SI#" + id++, "S#2", "P#7", random.nextInt(5));
+	}
+
+	@Benchmark
+	public Item product() {
+		return ItemFactory.product("P#" + id++, "W#0", random.nextInt(100) + 100, random.nextInt(50) + 10);
+	}
+}
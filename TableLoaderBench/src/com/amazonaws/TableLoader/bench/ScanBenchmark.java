@@ -0,0 +1,65 @@
+package com.amazonaws.TableLoader.bench;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.TableLoader.ItemFactory;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Items per second on one core turning a scan page of AttributeValue maps into accumulated Items
+ * the way RunScan collects a segment
+ * @author rickhou
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class ScanBenchmark {
+	// roughly the number of order items in a 1MB scan page
+	private static final int PAGE_SIZE = 4000;
+
+	private List<Map<String, AttributeValue>> page = new ArrayList<Map<String, AttributeValue>>();
+
+	@Setup
+	public void setup() {
+		String date = ItemFactory.date(System.currentTimeMillis());
+		for (int i = 0; i < PAGE_SIZE; i++)
+			page.add(ItemUtils.toAttributeValues(ItemFactory.orderItem("O#" + i, "P#7#" + i, "P#7", "C#1", date,
+					i % 5, BigDecimal.valueOf(42))));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PAGE_SIZE)
+	public List<Item> accumulate() {
+		List<Item> items = new ArrayList<Item>();
+		Iterator<Item> it = ItemUtils.toItemList(page).iterator();
+		while (it.hasNext())
+			items.add(it.next());
+
+		return items;
+	}
+}
@@ -0,0 +1,90 @@
+package com.amazonaws.TableLoader.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.TableLoader.AttributeFactory;
+import com.amazonaws.TableLoader.ItemFactory;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Items per second on one core from entity construction to a 25 item BatchWriteItemRequest, through Document API
+ * items converted the way DynamoDB.batchWriteItem converts them, or through attribute maps built directly
+ * @author rickhou
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class WritePathBenchmark {
+	private static final int BATCH_SIZE = 25;
+
+	// size of the -s payload on index-lag data items, 0 for online-shop order items
+	@Param({ "0", "1024" })
+	public int payloadSize;
+
+	private AttributeFactory attributes = new AttributeFactory();
+	private String date, payload;
+	private int id;
+
+	@Setup
+	public void setup() {
+		date = ItemFactory.date(System.currentTimeMillis());
+		payload = ItemFactory.payload(payloadSize);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public BatchWriteItemRequest item() {
+		List<WriteRequest> requests = new ArrayList<WriteRequest>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			Item item = (payloadSize > 0 ? ItemFactory.ITEMS.data("Shard_" + i, "Shard_" + i, payload)
+					: ItemFactory.ITEMS.orderItem("O#" + id, "P#7#" + i, "P#7", "C#1", date, i % 5, 42));
+			requests.add(new WriteRequest(new PutRequest(ItemUtils.toAttributeValues(item))));
+		}
+		id++;
+
+		return new BatchWriteItemRequest(Collections.singletonMap("data", requests));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public BatchWriteItemRequest attribute() {
+		List<WriteRequest> requests = new ArrayList<WriteRequest>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			Map<String, AttributeValue> map = (payloadSize > 0
+					? attributes.data("Shard_" + i, "Shard_" + i, payload)
+					: attributes.orderItem("O#" + id, "P#7#" + i, "P#7", "C#1", date, i % 5, 42));
+			requests.add(new WriteRequest(new PutRequest(map)));
+		}
+		id++;
+
+		return new BatchWriteItemRequest(Collections.singletonMap("data", requests));
+	}
+}